@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    Checks ForecastFormatter against the way Utility formatted temperatures and dates before,
+    which is kept below, and counts what binding a forecast's worth of rows allocates once the
+    formatter has seen them.
+ */
+public class TestForecastFormatter extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int FORECAST_DAYS = 14;
+
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = getPrefs().getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedUnits == null) {
+            getPrefs().edit().remove(mUnitsKey).commit();
+            SettingsSnapshot.publish(mContext);
+        } else {
+            setUnits(mSavedUnits);
+        }
+        super.tearDown();
+    }
+
+    private SharedPreferences getPrefs() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    private void setUnits(String units) {
+        getPrefs().edit().putString(mUnitsKey, units).commit();
+        // Written off the main thread, so the listener would only hear about it later.
+        SettingsSnapshot.publish(mContext);
+    }
+
+    // Days from today at noon, the way the forecast stores them.
+    private static long getDate(int day) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        return time.setJulianDay(julianDay + day) + DAY_IN_MILLIS / 2;
+    }
+
+    public void testTemperaturesMatchFormat() {
+        String[] units = {
+                mContext.getString(R.string.pref_units_metric),
+                mContext.getString(R.string.pref_units_imperial)
+        };
+        double[] edges = {
+                0.0, -0.0, 0.4, -0.4, 0.5, -0.5, 0.49999999999999994, -0.49999999999999994,
+                2.5, -2.5, 99.5, -99.5, 1e9, -1e9, Double.NaN
+        };
+        for (String unit : units) {
+            setUnits(unit);
+            // Twice over, so the second pass comes out of the cache.
+            for (int pass = 0; pass < 2; pass++) {
+                for (double temperature = -120; temperature <= 120; temperature += 0.125) {
+                    assertEquals("Error: wrong " + unit + " temperature for " + temperature,
+                            formatTemperature(mContext, temperature),
+                            Utility.formatTemperature(mContext, temperature));
+                }
+                for (double temperature : edges) {
+                    assertEquals("Error: wrong " + unit + " temperature for " + temperature,
+                            formatTemperature(mContext, temperature),
+                            Utility.formatTemperature(mContext, temperature));
+                }
+            }
+        }
+    }
+
+    public void testUnitChangeClearsTemperatures() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+        String celsius = Utility.formatTemperature(mContext, 20);
+        setUnits(mContext.getString(R.string.pref_units_imperial));
+        String fahrenheit = Utility.formatTemperature(mContext, 20);
+        assertFalse("Error: the unit change was not picked up", celsius.equals(fahrenheit));
+        assertEquals(formatTemperature(mContext, 20), fahrenheit);
+    }
+
+    public void testDatesMatchFormat() {
+        // Twice over, so the second pass comes out of the cache.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int day = ForecastFormatter.MIN_CACHED_DAY - 3;
+                 day <= ForecastFormatter.MAX_CACHED_DAY + 3; day++) {
+                long date = getDate(day);
+                assertEquals("Error: wrong friendly day " + day,
+                        getFriendlyDayString(mContext, date, false),
+                        Utility.getFriendlyDayString(mContext, date, false));
+                assertEquals("Error: wrong long friendly day " + day,
+                        getFriendlyDayString(mContext, date, true),
+                        Utility.getFriendlyDayString(mContext, date, true));
+                assertEquals("Error: wrong full friendly day " + day,
+                        getFullFriendlyDayString(mContext, date),
+                        Utility.getFullFriendlyDayString(mContext, date));
+                assertEquals("Error: wrong day name " + day,
+                        getDayName(mContext, date), Utility.getDayName(mContext, date));
+                assertEquals("Error: wrong month day " + day,
+                        getFormattedMonthDay(mContext, date),
+                        Utility.getFormattedMonthDay(mContext, date));
+            }
+        }
+    }
+
+    // After ACTION_TIMEZONE_CHANGED, days and dates come out in the new zone.  Kiritimati and
+    // Pago Pago are 25 hours apart, so no instant falls on the same date in both.
+    public void testTimeZoneChangeIsPickedUp() {
+        ForecastFormatter formatter = ForecastFormatter.getInstance(mContext);
+        TimeZone savedTimeZone = TimeZone.getDefault();
+        long[] dates = new long[ForecastFormatter.MAX_CACHED_DAY + 3];
+        for (int day = 0; day < dates.length; day++) {
+            dates[day] = getDate(day - 1);
+        }
+        try {
+            for (String id : new String[]{"Pacific/Kiritimati", "Pacific/Pago_Pago"}) {
+                TimeZone.setDefault(TimeZone.getTimeZone(id));
+                // What the receiver does on the broadcast.
+                formatter.onTimeChanged();
+                for (long date : dates) {
+                    assertEquals("Error: wrong friendly day in " + id,
+                            getFriendlyDayString(mContext, date, false),
+                            Utility.getFriendlyDayString(mContext, date, false));
+                    assertEquals("Error: wrong long friendly day in " + id,
+                            getFriendlyDayString(mContext, date, true),
+                            Utility.getFriendlyDayString(mContext, date, true));
+                    assertEquals("Error: wrong day name in " + id,
+                            getDayName(mContext, date), Utility.getDayName(mContext, date));
+                    assertEquals("Error: wrong month day in " + id,
+                            getFormattedMonthDay(mContext, date),
+                            Utility.getFormattedMonthDay(mContext, date));
+                }
+            }
+        } finally {
+            TimeZone.setDefault(savedTimeZone);
+            formatter.onTimeChanged();
+        }
+    }
+
+    public void testBindingAllocatesNothing() {
+        long[] dates = new long[FORECAST_DAYS];
+        double[] highs = new double[FORECAST_DAYS];
+        double[] lows = new double[FORECAST_DAYS];
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            dates[i] = getDate(i);
+            highs[i] = 15 + i * 0.7;
+            lows[i] = -5 + i * 0.3;
+        }
+
+        for (String units : new String[]{
+                mContext.getString(R.string.pref_units_metric),
+                mContext.getString(R.string.pref_units_imperial)}) {
+            setUnits(units);
+            // The first time through fills the cache.
+            int checksum = bindForecast(dates, highs, lows);
+
+            Debug.startAllocCounting();
+            try {
+                Debug.resetThreadAllocCount();
+                // As if the list were scrolled back and forth a few times.
+                for (int i = 0; i < 10; i++) {
+                    checksum += bindForecast(dates, highs, lows);
+                }
+                assertEquals("Error: formatting allocated in " + units,
+                        0, Debug.getThreadAllocCount());
+            } finally {
+                Debug.stopAllocCounting();
+            }
+            assertTrue(checksum != 0);
+        }
+    }
+
+    // What ForecastAdapter and the detail widget format for each row.
+    private int bindForecast(long[] dates, double[] highs, double[] lows) {
+        int checksum = 0;
+        for (int i = 0; i < dates.length; i++) {
+            checksum += Utility.getFriendlyDayString(mContext, dates[i], i == 0).length();
+            checksum += Utility.formatTemperature(mContext, highs[i]).length();
+            checksum += Utility.formatTemperature(mContext, lows[i]).length();
+        }
+        checksum += Utility.getFullFriendlyDayString(mContext, dates[0]).length();
+        return checksum;
+    }
+
+    private static String formatTemperature(Context context, double temperature) {
+        // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
+        // the values here.
+        if (!Utility.isMetric(context)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+
+    private static String getFriendlyDayString(Context context, long dateInMillis,
+                                               boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    getFormattedMonthDay(context, dateInMillis)));
+        } else if ( julianDay < currentJulianDay + 7 ) {
+            return getDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String getFullFriendlyDayString(Context context, long dateInMillis) {
+        String day = getDayName(context, dateInMillis);
+        int formatId = R.string.format_full_friendly_date;
+        return String.format(context.getString(
+                formatId,
+                day,
+                getFormattedMonthDay(context, dateInMillis)));
+    }
+
+    private static String getDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if ( julianDay == currentJulianDay +1 ) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String getFormattedMonthDay(Context context, long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+}
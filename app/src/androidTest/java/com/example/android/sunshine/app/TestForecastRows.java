@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.util.ListUpdateCallback;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastRows extends AndroidTestCase {
+
+    private static final int FORECAST_DAYS = 14;
+
+    // In the order of the ForecastFragment.COL_* indices.
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    /*
+        Writes down the updates a diff dispatches.
+     */
+    private static class RecordingCallback implements ListUpdateCallback {
+        final List<String> mUpdates = new ArrayList<String>();
+
+        @Override
+        public void onInserted(int position, int count) {
+            mUpdates.add("insert " + position + " " + count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mUpdates.add("remove " + position + " " + count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mUpdates.add("move " + fromPosition + " " + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mUpdates.add("change " + position + " " + count);
+        }
+    }
+
+    private static long getDate(int day) {
+        Time time = new Time();
+        time.setToNow();
+        int julianDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+        return time.setJulianDay(julianDay + day);
+    }
+
+    /*
+        A forecast from today on, with the high of one day, if any, raised by a degree.
+     */
+    private static MatrixCursor createForecast(int days, int warmerDay) {
+        return createForecast(0, days, warmerDay);
+    }
+
+    /*
+        A forecast from firstDay on, today being 0.  Every day has the same weather whichever
+        day the forecast starts on.
+     */
+    private static MatrixCursor createForecast(int firstDay, int days, int warmerDay) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int day = firstDay; day < firstDay + days; day++) {
+            double high = 20 + day + (day == warmerDay ? 1 : 0);
+            cursor.addRow(new Object[]{day + 2, getDate(day), "Clear", high, 10 + day,
+                    "94043", 800, 37.4, -122.1});
+        }
+        return cursor;
+    }
+
+    private List<ForecastRow> createRows(int days, int warmerDay) {
+        return createRows(0, days, warmerDay);
+    }
+
+    private List<ForecastRow> createRows(int firstDay, int days, int warmerDay) {
+        MatrixCursor cursor = createForecast(firstDay, days, warmerDay);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        cursor.close();
+        return rows;
+    }
+
+    private static int countInsertions(List<String> updates) {
+        int count = 0;
+        for (String update : updates) {
+            if (update.startsWith("insert ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> diff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        RecordingCallback callback = new RecordingCallback();
+        ForecastRow.dispatchUpdates(ForecastRow.diff(oldRows, newRows), oldRows, newRows,
+                callback);
+        return callback.mUpdates;
+    }
+
+    public void testRowsAreFormatted() {
+        MatrixCursor cursor = createForecast(FORECAST_DAYS, -1);
+        List<ForecastRow> rows = ForecastRow.fromCursor(mContext, cursor);
+        assertEquals(FORECAST_DAYS, rows.size());
+
+        ForecastRow today = rows.get(0);
+        assertEquals(getDate(0), today.getDate());
+        assertEquals(Utility.getFriendlyDayString(mContext, getDate(0), false), today.mDateText);
+        assertEquals(Utility.getFriendlyDayString(mContext, getDate(0), true), today.mLongDateText);
+        assertEquals(Utility.getStringForWeatherCondition(mContext, 800), today.mDescription);
+        assertEquals(Utility.formatTemperature(mContext, 20), today.mHighText);
+        assertEquals(mContext.getString(R.string.a11y_high_temp, today.mHighText),
+                today.mHighA11y);
+        assertEquals(Utility.formatTemperature(mContext, 10), today.mLowText);
+        assertEquals(Utility.getIconResourceForWeatherCondition(800), today.mIconResource);
+        assertEquals(Utility.getArtResourceForWeatherCondition(800), today.mArtResource);
+        assertEquals("iconView" + getDate(0), today.mTransitionName);
+        cursor.close();
+    }
+
+    public void testSameForecastDispatchesNothing() {
+        List<ForecastRow> before = createRows(FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(FORECAST_DAYS, -1);
+        assertEquals(0, diff(before, after).size());
+    }
+
+    public void testOneChangedDayRedrawsOneRow() {
+        List<ForecastRow> before = createRows(FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(FORECAST_DAYS, 5);
+
+        List<String> updates = diff(before, after);
+        assertEquals(1, updates.size());
+        assertEquals("change 5 1", updates.get(0));
+    }
+
+    public void testNewDayAtTheEndIsInserted() {
+        List<ForecastRow> before = createRows(FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(FORECAST_DAYS + 1, -1);
+
+        List<String> updates = diff(before, after);
+        assertEquals(1, updates.size());
+        assertEquals("insert " + FORECAST_DAYS + " 1", updates.get(0));
+    }
+
+    // The next day: yesterday is gone and a day is added at the end.  The other days only move
+    // up, so only the new first row is rebound, for the today layout.
+    public void testDayShiftRebindsOnlyTheFirstRow() {
+        List<ForecastRow> before = createRows(-1, FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(0, FORECAST_DAYS, -1);
+        assertEquals(before.get(1), after.get(0));
+        assertEquals(before.get(1).mTransitionName, after.get(0).mTransitionName);
+
+        // One removal and one insertion, whichever order the diff dispatches them in, and then
+        // the one change.
+        List<String> updates = diff(before, after);
+        assertEquals(3, updates.size());
+        assertTrue(updates.contains("remove 0 1"));
+        assertEquals(1, countInsertions(updates));
+        assertEquals("change 0 1", updates.get(2));
+    }
+
+    // A day added before the first one is inserted, and the day it pushes down leaves the
+    // today layout.
+    public void testNewFirstDayRebindsTheOldOne() {
+        List<ForecastRow> before = createRows(0, FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(-1, FORECAST_DAYS + 1, -1);
+
+        List<String> updates = diff(before, after);
+        assertEquals(2, updates.size());
+        assertEquals("insert 0 1", updates.get(0));
+        assertEquals("change 1 1", updates.get(1));
+    }
+
+    public void testFirstLoadInsertsEverything() {
+        List<ForecastRow> none = ForecastRow.fromCursor(mContext, null);
+        List<ForecastRow> rows = createRows(FORECAST_DAYS, -1);
+
+        List<String> updates = diff(none, rows);
+        assertEquals(1, updates.size());
+        assertEquals("insert 0 " + FORECAST_DAYS, updates.get(0));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Parcel;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Checks that ForecastSnapshot reads what a cursor over the weather table holds, survives a
+    Parcel, and times random access to the days through the cursor and through the snapshot, e.g.
+
+        adb logcat -s TestForecastSnapshot
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int BENCHMARK_ROUNDS = 2000;
+    private static final long FIRST_DATE = 1419033600000L;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final String[] DESCRIPTIONS = {"Clear", "Rain", "Clouds"};
+
+    // The columns the detail view reads, in an order none of the old indices used.
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_HUMIDITY
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // A cursor over a real table, backed by a CursorWindow like the provider's.
+        mDb = SQLiteDatabase.create(null);
+        mDb.execSQL("CREATE TABLE " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry._ID + " INTEGER PRIMARY KEY,"
+                + WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL,"
+                + WeatherEntry.COLUMN_SHORT_DESC + " TEXT,"
+                + WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"
+                + WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL,"
+                + WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL,"
+                + WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL,"
+                + WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL,"
+                + WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL,"
+                + WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL)");
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherEntry.COLUMN_DATE, FIRST_DATE + day * DAY_IN_MILLIS);
+            // The last day has no description.
+            if (day < FORECAST_DAYS - 1) {
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[day % DESCRIPTIONS.length]);
+            }
+            values.put(WeatherEntry.COLUMN_WEATHER_ID, 800 - day);
+            values.put(WeatherEntry.COLUMN_MIN_TEMP, 10.5 + day);
+            values.put(WeatherEntry.COLUMN_MAX_TEMP, 20.25 + day);
+            values.put(WeatherEntry.COLUMN_HUMIDITY, 50 + day);
+            values.put(WeatherEntry.COLUMN_PRESSURE, 1000.5 + day);
+            values.put(WeatherEntry.COLUMN_WIND_SPEED, 1.5f * day);
+            values.put(WeatherEntry.COLUMN_DEGREES, 20 * day);
+            assertTrue(mDb.insert(WeatherEntry.TABLE_NAME, null, values) != -1);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private Cursor query() {
+        return mDb.query(WeatherEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    public void testSnapshotMatchesCursor() {
+        Cursor cursor = query();
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+        assertEquals(FORECAST_DAYS, forecast.getCount());
+        assertForecastMatches(cursor, forecast);
+        cursor.close();
+    }
+
+    public void testDescriptionsAreInterned() {
+        Cursor cursor = query();
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+
+        assertEquals(DESCRIPTIONS.length, forecast.getDescriptionCount());
+        for (int position = DESCRIPTIONS.length; position < FORECAST_DAYS - 1; position++) {
+            assertSame(forecast.getDescription(position - DESCRIPTIONS.length),
+                    forecast.getDescription(position));
+        }
+        assertNull(forecast.getDescription(FORECAST_DAYS - 1));
+    }
+
+    public void testMissingColumnsReadAsZero() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_WEATHER_ID});
+        cursor.addRow(new Object[]{FIRST_DATE, 800});
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+
+        assertEquals(1, forecast.getCount());
+        assertEquals(FIRST_DATE, forecast.getDate(0));
+        assertEquals(800, forecast.getWeatherId(0));
+        assertEquals(0.0, forecast.getMaxTemp(0));
+        assertEquals(0f, forecast.getHumidity(0));
+        assertNull(forecast.getDescription(0));
+
+        assertEquals(0, ForecastSnapshot.fromCursor(null).getCount());
+    }
+
+    public void testParcelRoundTrip() {
+        Cursor cursor = query();
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+
+        Parcel parcel = Parcel.obtain();
+        parcel.writeParcelable(forecast, 0);
+        parcel.setDataPosition(0);
+        ForecastSnapshot copy = parcel.readParcelable(ForecastSnapshot.class.getClassLoader());
+        parcel.recycle();
+
+        assertNotSame(forecast, copy);
+        assertEquals(forecast.getDescriptionCount(), copy.getDescriptionCount());
+        assertForecastMatches(cursor, copy);
+        cursor.close();
+    }
+
+    public void testRowsFromSnapshot() {
+        Cursor cursor = query();
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+        cursor.close();
+
+        assertEquals(ForecastRow.fromSnapshot(mContext, forecast),
+                ForecastRow.fromSnapshot(mContext, forecast));
+        assertEquals(FORECAST_DAYS, ForecastRow.fromSnapshot(mContext, forecast).size());
+        assertEquals(Utility.formatTemperature(mContext, forecast.getMaxTemp(3)),
+                ForecastRow.fromSnapshot(mContext, forecast).get(3).mHighText);
+    }
+
+    public void testRandomAccessBenchmark() {
+        Cursor cursor = query();
+        ForecastSnapshot forecast = ForecastSnapshot.fromCursor(cursor);
+
+        // Warm both up first.
+        long cursorNanos = timeCursor(cursor, BENCHMARK_ROUNDS / 10);
+        long snapshotNanos = timeSnapshot(forecast, BENCHMARK_ROUNDS / 10);
+
+        cursorNanos = timeCursor(cursor, BENCHMARK_ROUNDS);
+        snapshotNanos = timeSnapshot(forecast, BENCHMARK_ROUNDS);
+        cursor.close();
+
+        int reads = BENCHMARK_ROUNDS * FORECAST_DAYS;
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "%d days read out of order: cursor %d ns per day, snapshot %d ns per day, %.1fx",
+                reads, cursorNanos / reads, snapshotNanos / reads,
+                cursorNanos / (double) Math.max(1, snapshotNanos)));
+        assertTrue("Error: the snapshot is slower than the cursor", snapshotNanos < cursorNanos);
+    }
+
+    // Every day, from the last to the first, the way a list scrolled back up reads them.
+    private static long timeCursor(Cursor cursor, int rounds) {
+        int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int weatherIdColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        int maxTempColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int minTempColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+        int descriptionColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC);
+        double checksum = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int position = FORECAST_DAYS - 1; position >= 0; position--) {
+                cursor.moveToPosition(position);
+                checksum += cursor.getLong(dateColumn);
+                checksum += cursor.getInt(weatherIdColumn);
+                checksum += cursor.getDouble(maxTempColumn);
+                checksum += cursor.getDouble(minTempColumn);
+                String description = cursor.getString(descriptionColumn);
+                checksum += description == null ? 0 : description.length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum != 0);
+        return nanos;
+    }
+
+    private static long timeSnapshot(ForecastSnapshot forecast, int rounds) {
+        double checksum = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int position = FORECAST_DAYS - 1; position >= 0; position--) {
+                checksum += forecast.getDate(position);
+                checksum += forecast.getWeatherId(position);
+                checksum += forecast.getMaxTemp(position);
+                checksum += forecast.getMinTemp(position);
+                String description = forecast.getDescription(position);
+                checksum += description == null ? 0 : description.length();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum != 0);
+        return nanos;
+    }
+
+    private static void assertForecastMatches(Cursor cursor, ForecastSnapshot forecast) {
+        assertEquals(cursor.getCount(), forecast.getCount());
+        for (int position = 0; position < cursor.getCount(); position++) {
+            assertTrue(cursor.moveToPosition(position));
+            assertEquals(cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)),
+                    forecast.getId(position));
+            assertEquals(cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)),
+                    forecast.getDate(position));
+            assertEquals(cursor.getInt(cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)),
+                    forecast.getWeatherId(position));
+            assertEquals(cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)),
+                    forecast.getMaxTemp(position));
+            assertEquals(cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)),
+                    forecast.getMinTemp(position));
+            assertEquals(cursor.getFloat(cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)),
+                    forecast.getHumidity(position));
+            assertEquals(cursor.getFloat(cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE)),
+                    forecast.getPressure(position));
+            assertEquals(cursor.getFloat(cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED)),
+                    forecast.getWindSpeed(position));
+            assertEquals(cursor.getFloat(cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES)),
+                    forecast.getDegrees(position));
+            assertEquals(cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)),
+                    forecast.getDescription(position));
+        }
+    }
+}
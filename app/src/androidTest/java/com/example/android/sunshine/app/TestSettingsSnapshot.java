@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+import java.util.Map;
+
+/*
+    Checks that SettingsSnapshot follows the preferences, and times the settings a forecast row
+    reads while it is bound, read from the preferences the way Utility used to and from the
+    snapshot, e.g.
+
+        adb logcat -s TestSettingsSnapshot
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private static final String LOCATION = "94043";
+    private static final int BENCHMARK_ROWS = 20000;
+
+    private Map<String, ?> mSavedPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSavedPreferences = getPrefs().getAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = getPrefs().edit().clear();
+        for (Map.Entry<String, ?> entry : mSavedPreferences.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+        SettingsSnapshot.publish(mContext);
+        super.tearDown();
+    }
+
+    private SharedPreferences getPrefs() {
+        return PreferenceManager.getDefaultSharedPreferences(mContext);
+    }
+
+    public void testPublishReadsPreferences() {
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .putFloat(mContext.getString(R.string.pref_location_latitude), 37.4f)
+                .putFloat(mContext.getString(R.string.pref_location_longitude), -122.1f)
+                .putString(mContext.getString(R.string.pref_units_key),
+                        mContext.getString(R.string.pref_units_imperial))
+                .putString(mContext.getString(R.string.pref_art_pack_key),
+                        mContext.getString(R.string.pref_art_pack_cute_dogs))
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .putInt(mContext.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_OK)
+                .commit();
+        long version = SettingsSnapshot.get(mContext).getVersion();
+        SettingsSnapshot settings = SettingsSnapshot.publish(mContext);
+
+        assertTrue("Error: the version did not grow", settings.getVersion() > version);
+        assertSame(settings, SettingsSnapshot.get(mContext));
+        assertEquals(LOCATION, settings.getLocation());
+        assertTrue(settings.isLocationLatLonAvailable());
+        assertEquals(37.4f, settings.getLocationLatitude());
+        assertEquals(-122.1f, settings.getLocationLongitude());
+        assertFalse(settings.isMetric());
+        assertEquals(mContext.getString(R.string.pref_art_pack_cute_dogs), settings.getArtPack());
+        assertFalse(settings.isUsingLocalGraphics());
+        assertFalse(settings.isNotificationsEnabled());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, settings.getLocationStatus());
+
+        // Utility answers from the snapshot.
+        assertEquals(LOCATION, Utility.getPreferredLocation(mContext));
+        assertFalse(Utility.isMetric(mContext));
+        assertFalse(Utility.usingLocalGraphics(mContext));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    public void testDefaults() {
+        getPrefs().edit().clear().commit();
+        SettingsSnapshot settings = SettingsSnapshot.publish(mContext);
+
+        assertEquals(mContext.getString(R.string.pref_location_default), settings.getLocation());
+        assertFalse(settings.isLocationLatLonAvailable());
+        assertEquals(Utility.DEFAULT_LATLONG, settings.getLocationLatitude());
+        assertTrue(settings.isMetric());
+        assertTrue(settings.isUsingLocalGraphics());
+        assertTrue(settings.isNotificationsEnabled());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, settings.getLocationStatus());
+    }
+
+    public void testSnapshotsDoNotChange() {
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .commit();
+        SettingsSnapshot before = SettingsSnapshot.publish(mContext);
+
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), "10001")
+                .commit();
+        SettingsSnapshot after = SettingsSnapshot.publish(mContext);
+
+        assertEquals(LOCATION, before.getLocation());
+        assertEquals("10001", after.getLocation());
+    }
+
+    public void testListenerPublishesChanges() throws Exception {
+        // Listeners only hear about values that actually change.
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), "10001")
+                .commit();
+        SettingsSnapshot.publish(mContext);
+
+        final long version = SettingsSnapshot.get(mContext).getVersion();
+        // No publish() here: the listener hears about it on the main thread.
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .commit();
+
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+                return settings.getVersion() > version && LOCATION.equals(settings.getLocation());
+            }
+        }.run();
+    }
+
+    public void testBindBenchmark() {
+        getPrefs().edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .putString(mContext.getString(R.string.pref_art_pack_key),
+                        mContext.getString(R.string.pref_art_pack_cute_dogs))
+                .commit();
+        SettingsSnapshot.publish(mContext);
+
+        // Warm both up first.
+        long preferenceNanos = timePreferences(BENCHMARK_ROWS / 10);
+        long snapshotNanos = timeSnapshot(BENCHMARK_ROWS / 10);
+
+        preferenceNanos = timePreferences(BENCHMARK_ROWS);
+        snapshotNanos = timeSnapshot(BENCHMARK_ROWS);
+
+        Log.d(LOG_TAG, String.format(Locale.US,
+                "%d rows, units + art pack + location each: preferences %d ns per row, "
+                        + "snapshot %d ns per row, %.1fx",
+                BENCHMARK_ROWS, preferenceNanos / BENCHMARK_ROWS, snapshotNanos / BENCHMARK_ROWS,
+                preferenceNanos / (double) Math.max(1, snapshotNanos)));
+        assertTrue("Error: the snapshot is slower than the preferences",
+                snapshotNanos < preferenceNanos);
+    }
+
+    // What a row reads: the units for both temperatures, whether to load art from the network
+    // and which, and the location for the click-through URI.
+    private long timePreferences(int rows) {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            checksum += isMetric(mContext) ? 1 : 0;
+            checksum += isMetric(mContext) ? 1 : 0;
+            checksum += usingLocalGraphics(mContext) ? 1 : 0;
+            checksum += getArtPack(mContext).length();
+            checksum += getPreferredLocation(mContext).length();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum != 0);
+        return nanos;
+    }
+
+    private long timeSnapshot(int rows) {
+        int checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            checksum += SettingsSnapshot.get(mContext).isMetric() ? 1 : 0;
+            checksum += SettingsSnapshot.get(mContext).isMetric() ? 1 : 0;
+            checksum += SettingsSnapshot.get(mContext).isUsingLocalGraphics() ? 1 : 0;
+            checksum += SettingsSnapshot.get(mContext).getArtPack().length();
+            checksum += SettingsSnapshot.get(mContext).getLocation().length();
+        }
+        long nanos = System.nanoTime() - start;
+        assertTrue(checksum != 0);
+        return nanos;
+    }
+
+    private static boolean isMetric(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean usingLocalGraphics(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static String getArtPack(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+    }
+
+    private static String getPreferredLocation(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+    }
+}
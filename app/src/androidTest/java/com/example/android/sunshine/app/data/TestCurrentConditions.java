@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks that the provider keeps the current conditions in step with the weather it writes,
+    and times the widget's lookup of today's forecast against the join it replaces.
+ */
+public class TestCurrentConditions extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCurrentConditions.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "current_benchmark.db";
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    // What TodayWidgetIntentService asks for.
+    private static final String[] WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // The query the provider runs for current/[location].
+    private static String buildCurrentQuery() {
+        return SQLiteQueryBuilder.buildQueryString(false, CurrentEntry.TABLE_NAME, WIDGET_COLUMNS,
+                WeatherProvider.sCurrentLocationSettingSelection, null, null, null, null);
+    }
+
+    private WeatherProvider mProvider;
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        mProvider.shutdown();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocation() {
+        return ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    private static ContentValues createWeatherValues(long locationRowId, long date, double high) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        return values;
+    }
+
+    private Cursor queryCurrent() {
+        Cursor cursor = mProvider.query(CurrentEntry.buildCurrentLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertNotNull(cursor);
+        return cursor;
+    }
+
+    private void assertCurrent(long date, double high) {
+        Cursor cursor = queryCurrent();
+        assertTrue("Error: no current conditions", cursor.moveToFirst());
+        assertEquals(1, cursor.getCount());
+        assertEquals(date, cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(high, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals("North Pole",
+                cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+    }
+
+    private int countStoredRows() {
+        Cursor cursor = new WeatherDbHelper(mContext).getReadableDatabase().query(
+                CurrentEntry.TABLE_NAME, null, null, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testBulkInsertFillsCurrent() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday - DAY_IN_MILLIS, 70),
+                createWeatherValues(locationRowId, mToday, 75),
+                createWeatherValues(locationRowId, mToday + DAY_IN_MILLIS, 80)});
+
+        assertEquals("Error: the write did not store the current conditions", 1, countStoredRows());
+        assertCurrent(mToday, 75);
+    }
+
+    public void testUpdateRefreshesCurrent() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday, 75)});
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, 90);
+        assertEquals(1, mProvider.update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(mToday)}));
+        assertCurrent(mToday, 90);
+    }
+
+    public void testDeleteClearsCurrent() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday, 75)});
+
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(0, countStoredRows());
+        Cursor cursor = queryCurrent();
+        assertEquals("Error: deleted weather is still current", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Only tomorrow is left: today is missing, so tomorrow is current.
+    public void testFirstDayFromTodayIsCurrent() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday + DAY_IN_MILLIS, 80),
+                createWeatherValues(locationRowId, mToday + 2 * DAY_IN_MILLIS, 85)});
+        assertCurrent(mToday + DAY_IN_MILLIS, 80);
+    }
+
+    private long getStoredDate() {
+        Cursor cursor = new WeatherDbHelper(mContext).getReadableDatabase().query(
+                CurrentEntry.TABLE_NAME, new String[]{WeatherEntry.COLUMN_DATE},
+                null, null, null, null, null);
+        assertTrue("Error: no stored current conditions", cursor.moveToFirst());
+        long date = cursor.getLong(0);
+        cursor.close();
+        return date;
+    }
+
+    // A row left from a day that has gone by, or none at all after an upgrade, is answered
+    // from the weather table, without the query writing anything.
+    public void testStaleCurrentReadFromWeather() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday, 75)});
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues yesterday = new ContentValues();
+        yesterday.put(WeatherEntry.COLUMN_DATE, mToday - DAY_IN_MILLIS);
+        db.update(CurrentEntry.TABLE_NAME, yesterday, null, null);
+        assertCurrent(mToday, 75);
+        assertEquals("Error: the query wrote the current table",
+                mToday - DAY_IN_MILLIS, getStoredDate());
+
+        db.delete(CurrentEntry.TABLE_NAME, null, null);
+        assertCurrent(mToday, 75);
+        assertEquals("Error: the query wrote the current table", 0, countStoredRows());
+
+        Cursor cursor = mProvider.query(CurrentEntry.buildCurrentLocation("nowhere"),
+                WIDGET_COLUMNS, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(0, cursor.getCount());
+        assertEquals(WIDGET_COLUMNS.length, cursor.getColumnCount());
+        cursor.close();
+    }
+
+    // The sync's daily archiving is what moves the stored row on to the new day.
+    public void testArchivingRefreshesCurrent() {
+        long locationRowId = insertLocation();
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                createWeatherValues(locationRowId, mToday - DAY_IN_MILLIS, 70),
+                createWeatherValues(locationRowId, mToday, 75)});
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        ContentValues yesterday = new ContentValues();
+        yesterday.put(WeatherEntry.COLUMN_DATE, mToday - DAY_IN_MILLIS);
+        yesterday.put(WeatherEntry.COLUMN_MAX_TEMP, 70);
+        db.update(CurrentEntry.TABLE_NAME, yesterday, null, null);
+
+        assertEquals(1, mProvider.delete(WeatherEntry.buildWeatherArchiving(),
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(mToday)}));
+        assertEquals(mToday, getStoredDate());
+        assertCurrent(mToday, 75);
+    }
+
+    public void testCurrentLookupPlan() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        String sql = buildCurrentQuery();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(mToday)});
+        int detailIndex = cursor.getColumnIndex("detail");
+        assertTrue(cursor.moveToFirst());
+        String detail = cursor.getString(detailIndex);
+        Log.d(LOG_TAG, sql + " -> " + detail);
+        assertEquals("Error: the current conditions are not a single lookup", 1, cursor.getCount());
+        assertTrue("Error: the current conditions are not a primary key lookup: " + detail,
+                detail.startsWith("SEARCH") && detail.contains("INDEX"));
+        cursor.close();
+    }
+
+    private static final int BENCHMARK_LOCATIONS = 1000;
+    private static final int BENCHMARK_DAYS = 365;
+    private static final int BENCHMARK_QUERIES = 50;
+
+    private static void populate(SQLiteDatabase db, long today) {
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, 10.5, 21.5, 55, 1013.25, 3.5, 180)");
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, location % 90);
+                insertLocation.bindDouble(5, location % 180);
+                insertLocation.executeInsert();
+            }
+            // A year of history up to today and the two weeks ahead of it.
+            for (int day = 14 - BENCHMARK_DAYS; day < 14; day++) {
+                for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, today + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.execSQL(WeatherProvider.sRefreshCurrentSql, new Object[]{today});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    /**
+     * Runs the query for random locations and reads the first row, as the widget does.
+     * @return the median time of one query, in microseconds
+     */
+    private static long timeQuery(SQLiteDatabase db, String sql, long today) {
+        Random random = new Random(42);
+        long[] micros = new long[BENCHMARK_QUERIES];
+        for (int q = 0; q < BENCHMARK_QUERIES; q++) {
+            String[] args = {"location" + (1 + random.nextInt(BENCHMARK_LOCATIONS)),
+                    Long.toString(today)};
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, args);
+            assertTrue(cursor.moveToFirst());
+            cursor.getDouble(2);
+            cursor.close();
+            micros[q] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return micros[micros.length / 2];
+    }
+
+    // The widget update path before and after: the weather/location join from today on, sorted
+    // by date, against the lookup of the location's current conditions.
+    public void testWidgetQueryBenchmark() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        File path = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            long start = System.nanoTime();
+            populate(db, mToday);
+            Log.d(LOG_TAG, "Populated " + BENCHMARK_LOCATIONS + " locations x " + BENCHMARK_DAYS
+                    + " days in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+            String joinSql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                    WIDGET_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection, null,
+                    null, WeatherEntry.COLUMN_DATE + " ASC", null);
+            String currentSql = buildCurrentQuery();
+
+            long join = timeQuery(db, joinSql, mToday);
+            long current = timeQuery(db, currentSql, mToday);
+            Log.d(LOG_TAG, String.format("widget query median %7d us with the join, %7d us "
+                    + "from the current conditions", join, current));
+            assertTrue("Error: the current conditions were not faster than the join",
+                    current < join);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Upgrades a database captured at every earlier version to the current one, checks that no
+    location or weather row is lost and that the result has the same schema as a new install,
+    and reports how long each upgrade took, e.g.
+
+        adb logcat -s TestMigrations
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestMigrations.class.getSimpleName();
+
+    private static final String FRESH_DATABASE_NAME = "weather_fresh.db";
+
+    // A few locations with a year of days each, more than any real install keeps.
+    private static final int LOCATIONS = 10;
+    private static final int DAYS = 365;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    /*
+        The schema of every version from WeatherDbHelper.FIRST_MIGRATABLE_VERSION up to the
+        one before the current, exactly as that version created it.  These are frozen: when the
+        version goes up, add the schema it replaces here rather than editing one.
+     */
+    private static final String[][] CAPTURED_SCHEMAS = {
+            // version 2
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                            + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                            + "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+            },
+            // version 3
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                            + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                            + "UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+                    "CREATE INDEX IF NOT EXISTS weather_location_date ON weather (location_id, date);"
+            },
+            // version 4
+            {
+                    "CREATE TABLE location (_id INTEGER PRIMARY KEY,location_setting TEXT UNIQUE NOT NULL, "
+                            + "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );",
+                    "CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+                            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+                            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+                            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+                            + " FOREIGN KEY (location_id) REFERENCES location (_id),  "
+                            + "UNIQUE (date, location_id) ON CONFLICT REPLACE);",
+                    "CREATE TABLE current (location_setting TEXT PRIMARY KEY NOT NULL, "
+                            + "location_id INTEGER NOT NULL, city_name TEXT NOT NULL, "
+                            + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL, date INTEGER NOT NULL, "
+                            + "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL, min REAL NOT NULL, "
+                            + "max REAL NOT NULL, humidity REAL NOT NULL, pressure REAL NOT NULL, "
+                            + "wind REAL NOT NULL, degrees REAL NOT NULL);",
+                    "CREATE INDEX IF NOT EXISTS weather_location_date ON weather (location_id, date);"
+            }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The app's provider would keep the file open under the captured copy.
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        client.getLocalContentProvider().shutdown();
+        client.release();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String[] getCapturedSchema(int version) {
+        return CAPTURED_SCHEMAS[version - WeatherDbHelper.FIRST_MIGRATABLE_VERSION];
+    }
+
+    /**
+     * Writes a database at the given version where the app's helper will find it.
+     */
+    private void createDatabase(int version, String[] schema) {
+        File path = mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            for (String sql : schema) {
+                db.execSQL(sql);
+            }
+            populate(db);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    // Only the columns every captured version has.
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO location "
+                + "(_id, location_setting, city_name, coord_lat, coord_long) VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO weather "
+                + "(location_id, date, short_desc, weather_id, min, max, humidity, pressure, wind, degrees) "
+                + "VALUES (?, ?, 'Clear', 800, 10.5, 21.5, 55, 1013.25, 3.5, 180)");
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, location);
+                insertLocation.bindDouble(5, -location);
+                insertLocation.executeInsert();
+                for (int day = 0; day < DAYS; day++) {
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    /**
+     * @return every table's columns and every index's columns, sorted, so two schemas compare
+     * equal however their CREATE statements were worded
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> description = new ArrayList<String>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table' "
+                + "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            while (tables.moveToNext()) {
+                String table = tables.getString(0);
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        description.add(table + "." + columns.getString(columns.getColumnIndex("name"))
+                                + " " + columns.getString(columns.getColumnIndex("type"))
+                                + " notnull=" + columns.getInt(columns.getColumnIndex("notnull"))
+                                + " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+                    }
+                } finally {
+                    columns.close();
+                }
+                Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+                try {
+                    while (indexes.moveToNext()) {
+                        String index = indexes.getString(indexes.getColumnIndex("name"));
+                        StringBuilder entry = new StringBuilder(table).append(" index");
+                        // Automatic indexes are named after the table, not the statement.
+                        if (!index.startsWith("sqlite_autoindex_")) {
+                            entry.append(' ').append(index);
+                        }
+                        entry.append(" unique=").append(indexes.getInt(indexes.getColumnIndex("unique")));
+                        Cursor indexColumns = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                        try {
+                            while (indexColumns.moveToNext()) {
+                                entry.append(' ').append(
+                                        indexColumns.getString(indexColumns.getColumnIndex("name")));
+                            }
+                        } finally {
+                            indexColumns.close();
+                        }
+                        description.add(entry.toString());
+                    }
+                } finally {
+                    indexes.close();
+                }
+            }
+        } finally {
+            tables.close();
+        }
+        Collections.sort(description);
+        return description;
+    }
+
+    private List<String> describeFreshSchema() {
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+        File path = mContext.getDatabasePath(FRESH_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            return describeSchema(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    // Bumping the version without capturing the schema it replaces fails here.
+    public void testEveryPriorVersionCaptured() {
+        assertEquals("Error: capture the schema of every version before the current one",
+                WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.FIRST_MIGRATABLE_VERSION,
+                CAPTURED_SCHEMAS.length);
+        for (int version = WeatherDbHelper.FIRST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            boolean found = false;
+            for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+                found |= migration.fromVersion == version;
+            }
+            assertTrue("Error: no migration from version " + version, found);
+        }
+    }
+
+    public void testUpgradeFromEveryPriorVersion() {
+        List<String> freshSchema = describeFreshSchema();
+        for (int version = WeatherDbHelper.FIRST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            createDatabase(version, getCapturedSchema(version));
+
+            long start = System.nanoTime();
+            SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+            long millis = (System.nanoTime() - start) / 1000000;
+            try {
+                Log.d(LOG_TAG, String.format("version %d -> %d: %d ms for %d locations x %d days "
+                                + "(budget %d ms)", version, WeatherDbHelper.DATABASE_VERSION, millis,
+                        LOCATIONS, DAYS, WeatherDbHelper.MIGRATION_BUDGET_MILLIS));
+
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                assertEquals("Error: upgrading from version " + version + " lost locations",
+                        LOCATIONS, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+                assertEquals("Error: upgrading from version " + version + " lost weather",
+                        LOCATIONS * DAYS, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+                assertEquals("Error: upgrading from version " + version
+                        + " did not give the schema of a new install", freshSchema, describeSchema(db));
+                assertTrue("Error: upgrading from version " + version + " took " + millis + " ms",
+                        millis <= WeatherDbHelper.MIGRATION_BUDGET_MILLIS);
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    // Versions from before migrations start over empty rather than fail.
+    public void testUpgradeFromUnmigratableVersion() {
+        createDatabase(WeatherDbHelper.FIRST_MIGRATABLE_VERSION - 1,
+                getCapturedSchema(WeatherDbHelper.FIRST_MIGRATABLE_VERSION));
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, LocationEntry.TABLE_NAME));
+            assertEquals(describeFreshSchema(), describeSchema(db));
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -30,6 +33,10 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +519,224 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    private long[] queryBulkInsertedIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    // Re-inserting an identical forecast should neither touch the rows nor notify anyone.
+    public void testBulkInsertUnchangedRows() throws InterruptedException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] idsBefore = queryBulkInsertedIds();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // Give a (wrong) notification the chance to arrive.
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+
+        assertEquals("Error: identical rows were reported as changed", 0, insertCount);
+        assertFalse("Error: identical rows triggered a notification", weatherObserver.mContentChanged);
+        assertTrue("Error: identical rows were replaced",
+                Arrays.equals(idsBefore, queryBulkInsertedIds()));
+    }
+
+    // Changing one day should update that row in place and only notify that day's URI.
+    public void testBulkInsertChangedRow() throws InterruptedException {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long[] idsBefore = queryBulkInsertedIds();
+
+        long changedDate = values[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        long unchangedDate = values[4].getAsLong(WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver changedObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, changedObserver);
+        TestUtilities.TestContentObserver unchangedObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, unchangedDate),
+                true, unchangedObserver);
+
+        values = createBulkInsertWeatherValues(locationRowId);
+        values[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99.5);
+        int changedCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+
+        changedObserver.waitForNotificationOrFail();
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(changedObserver);
+        mContext.getContentResolver().unregisterContentObserver(unchangedObserver);
+        unchangedObserver.mHT.quit();
+
+        assertEquals(1, changedCount);
+        assertFalse("Error: an unchanged day was notified", unchangedObserver.mContentChanged);
+        assertTrue("Error: the changed row lost its _ID",
+                Arrays.equals(idsBefore, queryBulkInsertedIds()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertChangedRow.  Error validating WeatherEntry " + i,
+                    cursor, values[i]);
+        }
+        cursor.close();
+    }
+
+    // A sync's writes as the sync adapter sends them: the new location, its days, the prune.
+    private static ArrayList<ContentProviderOperation> createSyncOperations(long locationRowId) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        int locationIndex = -1;
+        if (locationRowId == -1) {
+            locationIndex = operations.size();
+            operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                    .withValues(TestUtilities.createNorthPoleLocationValues())
+                    .build());
+        }
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            ContentProviderOperation.Builder builder =
+                    ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI).withValues(values);
+            if (locationIndex == -1) {
+                builder.withValue(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            } else {
+                builder.withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, locationIndex);
+            }
+            operations.add(builder.build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE - 10000000000L)})
+                .build());
+        return operations;
+    }
+
+    private static int countWeatherUris(ContentProviderResult[] results, Uri uri) {
+        int count = 0;
+        for (ContentProviderResult result : results) {
+            if (uri.equals(result.uri)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void testApplyBatch() throws Exception {
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncOperations(-1));
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId != -1);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countWeatherUris(results, WeatherEntry.CONTENT_URI));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, queryBulkInsertedIds().length);
+
+        // The same forecast for the now stored location changes nothing.
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncOperations(locationRowId));
+        assertEquals(0, countWeatherUris(results, WeatherEntry.CONTENT_URI));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                countWeatherUris(results, WeatherEntry.UNCHANGED_URI));
+        assertEquals(0, (int) results[results.length - 1].count);
+    }
+
+    // A failing operation anywhere in the batch leaves the database as it was.
+    public void testApplyBatchIsAtomic() {
+        ArrayList<ContentProviderOperation> operations = createSyncOperations(-1);
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{"nowhere"})
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "Nowhere")
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed on its last operation");
+        } catch (OperationApplicationException expected) {
+            // and rolled back
+        } catch (Exception e) {
+            fail("Error: unexpected " + e);
+        }
+
+        assertEquals("Error: a failed batch left weather rows behind", 0, queryBulkInsertedIds().length);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: a failed batch left its location behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Storing a known location again keeps its row and only takes revised coordinates.
+    public void testLocationUpsert() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        LocationRegistry.put(TestUtilities.TEST_LOCATION, locationRowId,
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                values.getAsDouble(LocationEntry.COLUMN_COORD_LONG));
+
+        int unchangedBefore = LocationRegistry.getUnchangedCount();
+        assertEquals(locationRowId, ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values)));
+        assertEquals(unchangedBefore + 1, LocationRegistry.getUnchangedCount());
+
+        ContentValues revised = new ContentValues(values);
+        revised.put(LocationEntry.COLUMN_COORD_LAT, 64.7489);
+        int updatedBefore = LocationRegistry.getUpdatedCount();
+        assertEquals("Error: revised coordinates gave the location a new row", locationRowId,
+                ContentUris.parseId(mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, revised)));
+        assertEquals(updatedBefore + 1, LocationRegistry.getUpdatedCount());
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        TestUtilities.validateCursor("testLocationUpsert.  Error validating revised location.",
+                cursor, revised);
+        cursor.close();
+
+        // A location the registry can't follow makes it forget them all.
+        assertNotNull(LocationRegistry.get(TestUtilities.TEST_LOCATION));
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        assertNull(LocationRegistry.get(TestUtilities.TEST_LOCATION));
+    }
+
+    public void testCoalesceNotifications() {
+        Uri day = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        List<Uri> uris = Arrays.asList(day, LocationEntry.CONTENT_URI, WeatherEntry.CONTENT_URI);
+
+        assertEquals(Arrays.asList(LocationEntry.CONTENT_URI, WeatherEntry.CONTENT_URI),
+                WeatherProvider.coalesceNotifications(uris));
+        assertEquals(Arrays.asList(day),
+                WeatherProvider.coalesceNotifications(Arrays.asList(day)));
+    }
 }
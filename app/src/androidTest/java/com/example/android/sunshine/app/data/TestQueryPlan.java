@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks with EXPLAIN QUERY PLAN that the provider's weather-by-location queries are index
+    lookups rather than table scans, and times them against a database with years of history.
+ */
+public class TestQueryPlan extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlan.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "weather_benchmark.db";
+
+    // Roughly what ForecastFragment asks for.
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static String buildQuery(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, selection, null, null, SORT_ORDER, null);
+    }
+
+    /**
+     * @return the detail column of every row of the query plan
+     */
+    private static String[] explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        String[] details = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            details[i] = cursor.getString(detailIndex);
+        }
+        cursor.close();
+        return details;
+    }
+
+    private void assertNoScans(String selection, String[] args) {
+        String[] plan = explain(mDb, buildQuery(selection), args);
+        Log.d(LOG_TAG, selection + " -> " + Arrays.toString(plan));
+
+        assertTrue(plan.length > 0);
+        for (String detail : plan) {
+            // "SCAN TABLE weather" on older SQLite, "SCAN weather" on newer.
+            assertFalse("Error: full scan in the plan of [" + selection + "]: " + detail,
+                    detail.startsWith("SCAN"));
+            assertFalse("Error: sort in the plan of [" + selection + "]: " + detail,
+                    detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    public void testIndexCreated() {
+        Cursor cursor = mDb.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the weather location/date index is missing", cursor.moveToFirst());
+        cursor.close();
+    }
+
+    public void testLocationSettingSelectionPlan() {
+        assertNoScans(WeatherProvider.sLocationSettingSelection,
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+
+    public void testLocationSettingWithStartDateSelectionPlan() {
+        assertNoScans(WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    public void testLocationSettingAndDaySelectionPlan() {
+        assertNoScans(WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    // The version 2 to 3 upgrade adds the index without losing any rows.
+    public void testUpgradeKeepsData() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDb.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+
+        new WeatherDbHelper(mContext).onUpgrade(mDb, 2, 3);
+
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME, null, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationRowId)}, null, null, null);
+        assertTrue("Error: upgrading to version 3 lost the data", cursor.moveToFirst());
+        cursor.close();
+        testIndexCreated();
+    }
+
+    private static final int BENCHMARK_LOCATIONS = 1000;
+    private static final int BENCHMARK_DAYS = 2 * 365;
+    private static final int BENCHMARK_QUERIES = 20;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, 10.5, 21.5, 55, 1013.25, 3.5, 180)");
+        db.beginTransaction();
+        try {
+            // Days are written one date at a time across all locations, the way syncs add them.
+            for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, location % 90);
+                insertLocation.bindDouble(5, location % 180);
+                insertLocation.executeInsert();
+            }
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    /**
+     * Runs each selection against random locations.
+     * @return the median time of one query, in microseconds, per selection
+     */
+    private static long[] timeQueries(SQLiteDatabase db) {
+        String[] selections = {
+                WeatherProvider.sLocationSettingSelection,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                WeatherProvider.sLocationSettingAndDaySelection
+        };
+        Random random = new Random(42);
+        long[] medians = new long[selections.length];
+        for (int s = 0; s < selections.length; s++) {
+            String sql = buildQuery(selections[s]);
+            long[] micros = new long[BENCHMARK_QUERIES];
+            for (int q = 0; q < BENCHMARK_QUERIES; q++) {
+                String location = "location" + (1 + random.nextInt(BENCHMARK_LOCATIONS));
+                // A recent date, like "today" after a year of history.
+                String date = Long.toString(TestUtilities.TEST_DATE
+                        + (BENCHMARK_DAYS - 14) * DAY_IN_MILLIS);
+                String[] args = selections[s] == WeatherProvider.sLocationSettingSelection
+                        ? new String[]{location} : new String[]{location, date};
+
+                long start = System.nanoTime();
+                Cursor cursor = db.rawQuery(sql, args);
+                cursor.getCount();
+                cursor.close();
+                micros[q] = (System.nanoTime() - start) / 1000;
+            }
+            Arrays.sort(micros);
+            medians[s] = micros[micros.length / 2];
+        }
+        return medians;
+    }
+
+    public void testQueryBenchmark() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        File path = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            long start = System.nanoTime();
+            populate(db);
+            Log.d(LOG_TAG, "Populated " + BENCHMARK_LOCATIONS + " locations x " + BENCHMARK_DAYS
+                    + " days in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+            long[] indexed = timeQueries(db);
+            db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+            long[] unindexed = timeQueries(db);
+
+            String[] names = {"location", "location + start date", "location + day"};
+            for (int i = 0; i < names.length; i++) {
+                Log.d(LOG_TAG, String.format("%-22s median %7d us with index, %7d us without",
+                        names[i], indexed[i], unindexed[i]));
+                assertTrue("Error: the index did not speed up the " + names[i] + " query",
+                        indexed[i] < unindexed[i]);
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestQueryResultCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "10001";
+
+    // A provider of our own, so the counters start at zero.
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        mProvider.shutdown();
+        super.tearDown();
+    }
+
+    private static Cursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_SHORT_DESC, WeatherEntry.COLUMN_MAX_TEMP});
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{TestUtilities.TEST_DATE + i, "Asteroids", 75.5});
+        }
+        return cursor;
+    }
+
+    private static QueryResultCache.Key createKey(String locationSetting) {
+        return QueryResultCache.key(WeatherProvider.WEATHER_WITH_LOCATION,
+                WeatherEntry.buildWeatherLocation(locationSetting), null, null, null, null,
+                locationSetting);
+    }
+
+    public void testCachedCopyMatches() {
+        QueryResultCache cache = new QueryResultCache(4);
+        QueryResultCache.Key key = createKey(TestUtilities.TEST_LOCATION);
+        assertNull(cache.get(key));
+
+        cache.put(key, createCursor(3), cache.getGeneration()).close();
+        Cursor cursor = cache.get(key);
+        assertNotNull("Error: the result was not cached", cursor);
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(TestUtilities.TEST_DATE + 2, cursor.getLong(0));
+        assertEquals("Asteroids", cursor.getString(1));
+        assertEquals(75.5, cursor.getDouble(2));
+        cursor.close();
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testEviction() {
+        QueryResultCache cache = new QueryResultCache(2);
+        String[] locations = {"1", "2", "3"};
+        for (String location : locations) {
+            cache.put(createKey(location), createCursor(1), cache.getGeneration()).close();
+        }
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull("Error: the least recently used entry was kept", cache.get(createKey("1")));
+    }
+
+    public void testInvalidateLocation() {
+        QueryResultCache cache = new QueryResultCache(4);
+        cache.put(createKey("1"), createCursor(1), cache.getGeneration()).close();
+        cache.put(createKey("2"), createCursor(1), cache.getGeneration()).close();
+
+        cache.invalidateLocation("1");
+        assertNull(cache.get(createKey("1")));
+        assertNotNull("Error: another location's entry was dropped", cache.get(createKey("2")));
+        assertEquals(1, cache.getInvalidationCount());
+        // Invalidations are not evictions.
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    // Dropping everything goes through LruCache.evictAll(), which mustn't count as evictions.
+    public void testInvalidateAllIsNotEviction() {
+        QueryResultCache cache = new QueryResultCache(2);
+        String[] locations = {"1", "2", "3"};
+        for (String location : locations) {
+            cache.put(createKey(location), createCursor(1), cache.getGeneration()).close();
+        }
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        // Evictions after it are still counted.
+        for (String location : locations) {
+            cache.put(createKey(location), createCursor(1), cache.getGeneration()).close();
+        }
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    // A result read before an invalidation must not be stored after it.
+    public void testStaleResultNotStored() {
+        QueryResultCache cache = new QueryResultCache(4);
+        long generation = cache.getGeneration();
+        cache.invalidateLocation("1");
+
+        Cursor cursor = cache.put(createKey("1"), createCursor(2), generation);
+        assertEquals("Error: the caller did not get its result", 2, cursor.getCount());
+        cursor.close();
+        assertEquals(0, cache.size());
+    }
+
+    public void testLargeResultNotStored() {
+        QueryResultCache cache = new QueryResultCache(4);
+        Cursor original = createCursor(QueryResultCache.MAX_ROWS + 1);
+        Cursor cursor = cache.put(createKey("1"), original, cache.getGeneration());
+        assertSame(original, cursor);
+        cursor.close();
+        assertEquals(0, cache.size());
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private long[] getCounters() {
+        Cursor cursor = mProvider.query(SyncStatsEntry.QUERY_CACHE_CONTENT_URI, null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        long[] counters = {
+                cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_CACHE_HITS)),
+                cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_CACHE_MISSES)),
+                cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_CACHE_INVALIDATIONS))
+        };
+        assertEquals(QueryResultCache.DEFAULT_MAX_ENTRIES,
+                cursor.getInt(cursor.getColumnIndex(SyncStatsEntry.COLUMN_CACHE_MAX_SIZE)));
+        cursor.close();
+        return counters;
+    }
+
+    // A write to one location invalidates its queries and leaves the other location's cached.
+    public void testProviderInvalidatesWrittenLocation() {
+        long northPoleId = insertLocation(TestUtilities.TEST_LOCATION);
+        long otherId = insertLocation(OTHER_LOCATION);
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                TestUtilities.createWeatherValues(northPoleId),
+                TestUtilities.createWeatherValues(otherId)});
+
+        Uri northPole = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri other = WeatherEntry.buildWeatherLocation(OTHER_LOCATION);
+        assertEquals(1, countRows(northPole));
+        assertEquals(1, countRows(other));
+        long[] before = getCounters();
+
+        assertEquals(1, countRows(northPole));
+        long[] afterRepeat = getCounters();
+        assertEquals("Error: the repeated query was not a hit", before[0] + 1, afterRepeat[0]);
+
+        ContentValues tomorrow = TestUtilities.createWeatherValues(northPoleId);
+        tomorrow.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + 24L * 60 * 60 * 1000);
+        assertEquals(1, mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{tomorrow}));
+        long[] afterWrite = getCounters();
+        assertTrue("Error: the write did not invalidate", afterWrite[2] > afterRepeat[2]);
+
+        assertEquals("Error: the written location was served stale", 2, countRows(northPole));
+        assertEquals(1, countRows(other));
+        long[] afterRequery = getCounters();
+        assertEquals(afterWrite[1] + 1, afterRequery[1]);
+        assertEquals("Error: the other location's entry was invalidated",
+                afterWrite[0] + 1, afterRequery[0]);
+    }
+}
@@ -34,8 +34,20 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_AND_RANGE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 7 * 24 * 60 * 60 * 1000L);
+    private static final Uri TEST_WEATHER_ARCHIVING_DIR = WeatherContract.WeatherEntry.buildWeatherArchiving();
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/current/London, UK"
+    private static final Uri TEST_CURRENT_WITH_LOCATION_DIR = WeatherContract.CurrentEntry.buildCurrentLocation(LOCATION_QUERY);
+    // content://com.example.android.sunshine.app/archive"
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    // content://com.example.android.sunshine.app/sync_stats"
+    private static final Uri TEST_SYNC_STATS_DIR = WeatherContract.SyncStatsEntry.CONTENT_URI;
+    private static final Uri TEST_SYNC_STATS_RECENT_DIR = WeatherContract.SyncStatsEntry.RECENT_CONTENT_URI;
+    private static final Uri TEST_SYNC_STATS_BREAKER_DIR = WeatherContract.SyncStatsEntry.BREAKER_CONTENT_URI;
+    private static final Uri TEST_SYNC_STATS_QUERY_CACHE_DIR = WeatherContract.SyncStatsEntry.QUERY_CACHE_CONTENT_URI;
+    private static final Uri TEST_SYNC_STATS_LOCATIONS_DIR = WeatherContract.SyncStatsEntry.LOCATION_REGISTRY_CONTENT_URI;
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +63,25 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION AND RANGE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_RANGE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_RANGE);
+        assertEquals("Error: The WEATHER ARCHIVING URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_ARCHIVING_DIR), WeatherProvider.WEATHER);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The CURRENT WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_CURRENT_WITH_LOCATION_DIR), WeatherProvider.CURRENT_WITH_LOCATION);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The SYNC STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_DIR), WeatherProvider.SYNC_STATS);
+        assertEquals("Error: The SYNC STATS RECENT URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_RECENT_DIR), WeatherProvider.SYNC_STATS_RECENT);
+        assertEquals("Error: The SYNC STATS BREAKER URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_BREAKER_DIR), WeatherProvider.SYNC_STATS_BREAKER);
+        assertEquals("Error: The SYNC STATS QUERY CACHE URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_QUERY_CACHE_DIR), WeatherProvider.SYNC_STATS_QUERY_CACHE);
+        assertEquals("Error: The SYNC STATS LOCATIONS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATS_LOCATIONS_DIR), WeatherProvider.SYNC_STATS_LOCATION_REGISTRY);
     }
 }
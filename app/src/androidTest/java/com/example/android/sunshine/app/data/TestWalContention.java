@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SyncStats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Reader latency through the provider while the sync adapter's bulkInsert transactions run,
+    once with the rollback journal and once with write-ahead logging, e.g.
+
+        adb logcat -s TestWalContention
+ */
+public class TestWalContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWalContention.class.getSimpleName();
+
+    private static final int READER_THREADS = 4;
+    private static final int WRITE_ROUNDS = 20;
+    private static final int DAYS_PER_WRITE = 365;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // The app's own provider would keep its connections open on the same file, and the
+        // journal mode can't be switched while anyone else has it open.
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        client.getLocalContentProvider().shutdown();
+        client.release();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        WeatherDbHelper.setWriteAheadLogging(true);
+        WeatherDbHelper.setWalAutoCheckpointPages(WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testWriteAheadLoggingByDefault() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            assertTrue("Error: the database is not in write-ahead logging mode",
+                    WeatherDbHelper.isWriteAheadLogging(db));
+            assertEquals(WeatherDbHelper.DEFAULT_WAL_AUTOCHECKPOINT_PAGES,
+                    DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+            assertEquals(WeatherDbHelper.JOURNAL_SIZE_LIMIT_BYTES,
+                    DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit", null));
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testCheckpointPolicy() {
+        WeatherDbHelper.setWalAutoCheckpointPages(100);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            assertEquals(100, DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint", null));
+            WeatherDbHelper.checkpoint(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testRollbackJournalWhenDisabled() {
+        WeatherDbHelper.setWriteAheadLogging(false);
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            assertFalse(WeatherDbHelper.isWriteAheadLogging(db));
+            // Harmless without a log to checkpoint.
+            WeatherDbHelper.checkpoint(db);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static ContentValues[] createDays(long locationRowId, int round) {
+        ContentValues[] values = new ContentValues[DAYS_PER_WRITE];
+        for (int day = 0; day < DAYS_PER_WRITE; day++) {
+            values[day] = TestUtilities.createWeatherValues(locationRowId);
+            values[day].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            // Every round changes every row, so every bulkInsert really writes.
+            values[day].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + round);
+        }
+        return values;
+    }
+
+    /**
+     * Runs the reader threads against a fresh provider while the main thread bulk inserts.
+     * @return the sorted latencies of every read, in microseconds
+     */
+    private long[] measureReaders(boolean writeAheadLogging) throws InterruptedException {
+        WeatherDbHelper.setWriteAheadLogging(writeAheadLogging);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        final WeatherProvider provider = new WeatherProvider();
+        provider.attachInfo(mContext, null);
+        try {
+            long locationRowId = ContentUris.parseId(provider.insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues()));
+            provider.bulkInsert(WeatherEntry.CONTENT_URI, createDays(locationRowId, 0));
+
+            final Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                    TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+            final AtomicBoolean done = new AtomicBoolean();
+            final List<List<Long>> latencies = new ArrayList<List<Long>>();
+            Thread[] readers = new Thread[READER_THREADS];
+            for (int i = 0; i < readers.length; i++) {
+                final List<Long> mine = new ArrayList<Long>();
+                latencies.add(mine);
+                readers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        while (!done.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = provider.query(uri, null, null, null,
+                                    WeatherEntry.COLUMN_DATE + " ASC");
+                            cursor.getCount();
+                            cursor.close();
+                            mine.add((System.nanoTime() - start) / 1000);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+
+            long start = System.nanoTime();
+            for (int round = 1; round <= WRITE_ROUNDS; round++) {
+                assertEquals(DAYS_PER_WRITE,
+                        provider.bulkInsert(WeatherEntry.CONTENT_URI, createDays(locationRowId, round)));
+            }
+            long writeMillis = (System.nanoTime() - start) / 1000000;
+
+            done.set(true);
+            int count = 0;
+            for (int i = 0; i < readers.length; i++) {
+                readers[i].join();
+                count += latencies.get(i).size();
+            }
+            long[] sorted = new long[count];
+            int next = 0;
+            for (List<Long> list : latencies) {
+                for (Long micros : list) {
+                    sorted[next++] = micros;
+                }
+            }
+            Arrays.sort(sorted);
+
+            Log.d(LOG_TAG, String.format("%-16s %d reads in %d ms of writes, "
+                            + "p50=%d p90=%d p99=%d max=%d us",
+                    writeAheadLogging ? "write-ahead log" : "rollback journal",
+                    sorted.length, writeMillis,
+                    SyncStats.percentile(sorted, 50), SyncStats.percentile(sorted, 90),
+                    SyncStats.percentile(sorted, 99), SyncStats.percentile(sorted, 100)));
+            return sorted;
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    public void testReaderLatencyDuringBulkInsert() throws InterruptedException {
+        long[] rollbackJournal = measureReaders(false);
+        long[] writeAheadLog = measureReaders(true);
+
+        assertTrue("Error: no reads finished with the rollback journal", rollbackJournal.length > 0);
+        assertTrue("Error: no reads finished with the write-ahead log", writeAheadLog.length > 0);
+    }
+}
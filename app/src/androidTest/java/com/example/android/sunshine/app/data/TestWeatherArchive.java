@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Checks that the provider moves old weather into the archive, rolls old days up into weeks,
+    and answers weather ranges from both tables, and times range queries over years of history
+    before and after archiving, e.g.
+
+        adb logcat -s TestWeatherArchive
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherArchive.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "archive_benchmark.db";
+
+    private WeatherProvider mProvider;
+    private final Time mTime = new Time();
+    private int mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        deleteAll();
+        long now = System.currentTimeMillis();
+        mTime.set(now);
+        mToday = Time.getJulianDay(now, mTime.gmtoff);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        mProvider.shutdown();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void deleteAll() {
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(ArchiveEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long getDate(int julianDay) {
+        return mTime.setJulianDay(julianDay);
+    }
+
+    private long insertLocation() {
+        return ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    private ContentValues createWeatherValues(long locationRowId, int julianDay) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_DATE, getDate(julianDay));
+        return values;
+    }
+
+    // Puts the days from firstDay up to, not including, lastDay into the weather table.
+    private void insertDays(long locationRowId, int firstDay, int lastDay) {
+        ContentValues[] values = new ContentValues[lastDay - firstDay];
+        for (int day = firstDay; day < lastDay; day++) {
+            values[day - firstDay] = createWeatherValues(locationRowId, day);
+        }
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    // What the sync does with everything before today.
+    private int archiveBeforeToday() {
+        return mProvider.delete(WeatherEntry.buildWeatherArchiving(),
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(getDate(mToday))});
+    }
+
+    private Cursor queryArchive() {
+        return mProvider.query(ArchiveEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private Cursor queryRange(int firstDay, int lastDay) {
+        return mProvider.query(WeatherEntry.buildWeatherLocationWithRange(
+                TestUtilities.TEST_LOCATION, getDate(firstDay), getDate(lastDay)),
+                null, null, null, null);
+    }
+
+    private static int sumDayCounts(Cursor cursor) {
+        int days = 0;
+        int dayCountIndex = cursor.getColumnIndex(ArchiveEntry.COLUMN_DAY_COUNT);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            days += cursor.getInt(dayCountIndex);
+        }
+        return days;
+    }
+
+    public void testArchivingMovesDays() {
+        long locationRowId = insertLocation();
+        insertDays(locationRowId, mToday - 3, mToday + 1);
+
+        assertEquals(3, archiveBeforeToday());
+        Cursor weather = mProvider.query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: archived days were left in the weather table", 1, weather.getCount());
+        weather.close();
+
+        Cursor archive = queryArchive();
+        assertEquals(3, archive.getCount());
+        while (archive.moveToNext()) {
+            long date = archive.getLong(archive.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            assertEquals("Error: a recent day was rolled up", date,
+                    archive.getLong(archive.getColumnIndex(ArchiveEntry.COLUMN_END_DATE)));
+            assertEquals("Asteroids",
+                    archive.getString(archive.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        }
+        archive.close();
+
+        // The range doesn't care where the days are.
+        Cursor range = queryRange(mToday - 3, mToday);
+        assertEquals(4, range.getCount());
+        int dateIndex = range.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        for (int day = mToday - 3; range.moveToNext(); day++) {
+            assertEquals(getDate(day), range.getLong(dateIndex));
+            assertEquals(1, range.getInt(range.getColumnIndex(ArchiveEntry.COLUMN_DAY_COUNT)));
+            assertEquals(TestUtilities.TEST_LOCATION, range.getString(
+                    range.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        }
+        range.close();
+    }
+
+    public void testOldDaysRolledUpIntoWeeks() {
+        long locationRowId = insertLocation();
+        final int days = 400;
+        insertDays(locationRowId, mToday - days, mToday);
+        assertEquals(days, archiveBeforeToday());
+
+        int cutoffDay = WeatherArchive.getWeekStart(mToday - WeatherArchive.DAILY_RETENTION_DAYS);
+        Cursor archive = queryArchive();
+        assertTrue("Error: the archive was not downsampled", archive.getCount() < days);
+        assertEquals("Error: the archive lost days", days, sumDayCounts(archive));
+        archive.moveToPosition(-1);
+        int weeks = 0;
+        while (archive.moveToNext()) {
+            long date = archive.getLong(archive.getColumnIndex(WeatherEntry.COLUMN_DATE));
+            long endDate = archive.getLong(archive.getColumnIndex(ArchiveEntry.COLUMN_END_DATE));
+            mTime.set(date);
+            int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+            if (date == endDate) {
+                assertTrue("Error: a day older than the retention was kept", julianDay >= cutoffDay);
+            } else {
+                weeks++;
+                assertEquals("Error: a week doesn't start on a Monday",
+                        WeatherArchive.getWeekStart(julianDay), julianDay);
+                assertEquals(getDate(julianDay + WeatherArchive.WEEK_DAYS - 1), endDate);
+                assertTrue(julianDay < cutoffDay);
+            }
+        }
+        archive.close();
+        assertTrue(weeks > 0);
+
+        Cursor range = queryRange(mToday - days, mToday - 1);
+        assertEquals("Error: the range lost days", days, sumDayCounts(range));
+        range.close();
+    }
+
+    public void testWeekAggregates() {
+        long locationRowId = insertLocation();
+        int monday = WeatherArchive.getWeekStart(mToday - 2 * WeatherArchive.DAILY_RETENTION_DAYS);
+        int[] weatherIds = {800, 500, 800, 500, 800, 500, 200};
+        double[] degrees = {350, 10, 0, 0, 0, 0, 0};
+        ContentValues[] values = new ContentValues[WeatherArchive.WEEK_DAYS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = createWeatherValues(locationRowId, monday + i);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, 1 + i);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 11 + i);
+            values[i].put(WeatherEntry.COLUMN_HUMIDITY, 10 * (i + 1));
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            values[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Weather " + weatherIds[i]);
+            values[i].put(WeatherEntry.COLUMN_DEGREES, degrees[i]);
+        }
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+        archiveBeforeToday();
+
+        Cursor archive = queryArchive();
+        assertTrue(archive.moveToFirst());
+        assertEquals(1, archive.getCount());
+        assertEquals(7, archive.getInt(archive.getColumnIndex(ArchiveEntry.COLUMN_DAY_COUNT)));
+        assertEquals(1.0, archive.getDouble(archive.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP)));
+        assertEquals(17.0, archive.getDouble(archive.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        assertEquals(40.0, archive.getDouble(archive.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY)), 1e-9);
+        // A tie between 800 and 500 goes to the one that came first.
+        assertEquals(800, archive.getInt(archive.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID)));
+        assertEquals("Weather 800",
+                archive.getString(archive.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+        double direction = archive.getDouble(archive.getColumnIndex(WeatherEntry.COLUMN_DEGREES));
+        assertTrue("Error: wind directions averaged to " + direction,
+                Math.min(direction, 360 - direction) < 1e-6);
+        archive.close();
+    }
+
+    // Days of a week that is already rolled up, from a device that hadn't synced for a while.
+    public void testLateDaysMergedIntoWeek() {
+        long locationRowId = insertLocation();
+        int monday = WeatherArchive.getWeekStart(mToday - 2 * WeatherArchive.DAILY_RETENTION_DAYS);
+        insertDays(locationRowId, monday, monday + 3);
+        archiveBeforeToday();
+        ContentValues late = createWeatherValues(locationRowId, monday + 3);
+        late.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                late, createWeatherValues(locationRowId, monday + 4)});
+        archiveBeforeToday();
+
+        Cursor archive = queryArchive();
+        assertTrue(archive.moveToFirst());
+        assertEquals("Error: the late days made a second row", 1, archive.getCount());
+        assertEquals(5, archive.getInt(archive.getColumnIndex(ArchiveEntry.COLUMN_DAY_COUNT)));
+        assertEquals(99.0, archive.getDouble(archive.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        archive.close();
+    }
+
+    // A range that starts in the middle of a week still gets the week.
+    public void testRangeIncludesOverlappingWeek() {
+        long locationRowId = insertLocation();
+        int monday = WeatherArchive.getWeekStart(mToday - 2 * WeatherArchive.DAILY_RETENTION_DAYS);
+        insertDays(locationRowId, monday, monday + WeatherArchive.WEEK_DAYS);
+        archiveBeforeToday();
+
+        Cursor range = queryRange(monday + 5, monday + 20);
+        assertEquals(1, range.getCount());
+        range.close();
+        range = queryRange(monday + WeatherArchive.WEEK_DAYS, monday + 20);
+        assertEquals(0, range.getCount());
+        range.close();
+    }
+
+    public void testDeletingLocationClearsArchive() {
+        long locationRowId = insertLocation();
+        insertDays(locationRowId, mToday - 3, mToday);
+        archiveBeforeToday();
+
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        Cursor archive = queryArchive();
+        assertEquals("Error: the archive kept the weather of a deleted location",
+                0, archive.getCount());
+        archive.close();
+    }
+
+    private static final int BENCHMARK_LOCATIONS = 50;
+    private static final int BENCHMARK_YEARS = 3;
+    private static final int BENCHMARK_QUERIES = 20;
+
+    private static void populate(SQLiteDatabase db, Time time, int today) {
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, ?, ?, 55, 1013.25, 3.5, 180)");
+        Random random = new Random(42);
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, location % 90);
+                insertLocation.bindDouble(5, location % 180);
+                insertLocation.executeInsert();
+            }
+            // Years of history up to today, written a day at a time as syncs would have.
+            for (int day = today - BENCHMARK_YEARS * 365; day <= today; day++) {
+                long date = time.setJulianDay(day);
+                for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                    double low = random.nextInt(30);
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, date);
+                    insertWeather.bindDouble(3, low);
+                    insertWeather.bindDouble(4, low + random.nextInt(15));
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    private static long getDatabaseBytes(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * Asks random locations for the two years before today, reading every row.
+     * @return the median time of one query in microseconds, and the rows of the last one
+     */
+    private static long[] timeRangeQueries(SQLiteDatabase db, Time time, int today) {
+        String sql = WeatherProvider.sWeatherRangeQueryBuilder.buildQuery(
+                null, null, null, null, WeatherEntry.COLUMN_DATE + " ASC", null);
+        long startDate = time.setJulianDay(today - 2 * 365);
+        long endDate = time.setJulianDay(today);
+        String[] args = {null, Long.toString(startDate), Long.toString(endDate),
+                Long.toString(startDate - (WeatherArchive.WEEK_DAYS + 1) * DateUtils.DAY_IN_MILLIS)};
+        Random random = new Random(42);
+        long[] micros = new long[BENCHMARK_QUERIES];
+        int rows = 0;
+        for (int q = 0; q < BENCHMARK_QUERIES; q++) {
+            args[0] = "location" + (1 + random.nextInt(BENCHMARK_LOCATIONS));
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery(sql, args);
+            rows = 0;
+            while (cursor.moveToNext()) {
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP));
+                rows++;
+            }
+            cursor.close();
+            micros[q] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return new long[]{micros[micros.length / 2], rows};
+    }
+
+    // Two years of one location from years of history, all in the weather table as before,
+    // then from the archive.
+    public void testRangeQueryBenchmark() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        File path = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        Time time = new Time();
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            long start = System.nanoTime();
+            populate(db, time, mToday);
+            Log.d(LOG_TAG, "Populated " + BENCHMARK_LOCATIONS + " locations x " + BENCHMARK_YEARS
+                    + " years in " + (System.nanoTime() - start) / 1000000 + " ms, "
+                    + getDatabaseBytes(db) / 1024 + " KB");
+            long[] daily = timeRangeQueries(db, time, mToday);
+
+            start = System.nanoTime();
+            db.beginTransaction();
+            try {
+                WeatherArchive.archive(db, WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(time.setJulianDay(mToday))},
+                        time.setJulianDay(mToday));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            long archiveMillis = (System.nanoTime() - start) / 1000000;
+            db.execSQL("VACUUM");
+            Log.d(LOG_TAG, "Archived in " + archiveMillis + " ms, "
+                    + DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME) + " archive rows, "
+                    + getDatabaseBytes(db) / 1024 + " KB after VACUUM");
+            long[] archived = timeRangeQueries(db, time, mToday);
+
+            Log.d(LOG_TAG, String.format("two-year range median %7d us over %4d rows before, "
+                    + "%7d us over %4d rows archived", daily[0], daily[1], archived[0], archived[1]));
+            assertTrue("Error: the archive did not downsample", archived[1] < daily[1]);
+            assertTrue("Error: the archived range was not faster", archived[0] < daily[0]);
+        } finally {
+            db.close();
+        }
+    }
+}
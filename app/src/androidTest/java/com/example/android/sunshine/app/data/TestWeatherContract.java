@@ -42,4 +42,48 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    public void testPageLimit() {
+        Uri page = WeatherContract.WeatherEntry.buildWeatherPage(0, 0, 25);
+        assertTrue(WeatherContract.WeatherEntry.isPageUri(page));
+        assertEquals(25, WeatherContract.WeatherEntry.getLimitFromUri(page));
+
+        // Anything but a number is no page at all.
+        for (String limit : new String[]{"", "abc", "12.5", "99999999999"}) {
+            Uri uri = WeatherContract.WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(WeatherContract.WeatherEntry.QUERY_LIMIT, limit)
+                    .build();
+            assertFalse("Error: a page for limit=" + limit,
+                    WeatherContract.WeatherEntry.isPageUri(uri));
+            assertEquals(0, WeatherContract.WeatherEntry.getLimitFromUri(uri));
+        }
+        assertFalse(WeatherContract.WeatherEntry.isPageUri(
+                WeatherContract.WeatherEntry.CONTENT_URI));
+
+        // The same goes for the keys the page starts after.
+        for (String key : new String[]{WeatherContract.WeatherEntry.QUERY_AFTER_LOCATION_ID,
+                WeatherContract.WeatherEntry.QUERY_AFTER_DATE}) {
+            for (String after : new String[]{"abc", "12.5", "99999999999999999999"}) {
+                Uri uri = WeatherContract.WeatherEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(key, after)
+                        .appendQueryParameter(WeatherContract.WeatherEntry.QUERY_LIMIT, "25")
+                        .build();
+                assertFalse("Error: a page for " + key + "=" + after,
+                        WeatherContract.WeatherEntry.isPageUri(uri));
+                assertEquals(0, WeatherContract.WeatherEntry.getAfterLocationIdFromUri(uri));
+                assertEquals(0, WeatherContract.WeatherEntry.getAfterDateFromUri(uri));
+            }
+
+            // Left empty, the page starts at the beginning.
+            Uri first = WeatherContract.WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(key, "")
+                    .appendQueryParameter(WeatherContract.WeatherEntry.QUERY_LIMIT, "25")
+                    .build();
+            assertTrue(WeatherContract.WeatherEntry.isPageUri(first));
+            assertEquals(0, WeatherContract.WeatherEntry.getAfterDateFromUri(first));
+        }
+        Uri nextPage = WeatherContract.WeatherEntry.buildWeatherPage(7, 1419033600000L, 25);
+        assertEquals(7, WeatherContract.WeatherEntry.getAfterLocationIdFromUri(nextPage));
+        assertEquals(1419033600000L, WeatherContract.WeatherEntry.getAfterDateFromUri(nextPage));
+    }
 }
@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks that weather pages cover every row exactly once and seek the location/date index,
+    and measures how many bytes of CursorWindow, which is what crosses the binder, a page takes
+    compared with the whole table, e.g.
+
+        adb logcat -s TestWeatherPaging
+ */
+public class TestWeatherPaging extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherPaging.class.getSimpleName();
+
+    private static final String BENCHMARK_DATABASE_NAME = "paging_benchmark.db";
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mProvider.delete(LocationEntry.CONTENT_URI, null, null);
+        mProvider.shutdown();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(mProvider.insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void insertDays(long locationRowId, int days) {
+        ContentValues[] values = new ContentValues[days];
+        for (int day = 0; day < days; day++) {
+            values[day] = TestUtilities.createWeatherValues(locationRowId);
+            values[day].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+            values[day].put(WeatherEntry.COLUMN_WEATHER_ID, day % 2 == 0 ? 800 : 500);
+        }
+        mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    public void testLocationPagesCoverEveryDay() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 30);
+
+        List<Long> dates = new ArrayList<Long>();
+        int pages = 0;
+        long afterDate = 0;
+        while (true) {
+            Cursor page = mProvider.query(WeatherEntry.buildWeatherLocationPage(
+                    TestUtilities.TEST_LOCATION, afterDate, 7),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            int count = page.getCount();
+            assertTrue("Error: a page held more rows than it asked for", count <= 7);
+            while (page.moveToNext()) {
+                afterDate = page.getLong(0);
+                dates.add(afterDate);
+            }
+            page.close();
+            if (count == 0) {
+                break;
+            }
+            pages++;
+        }
+
+        assertEquals(5, pages);
+        assertEquals(30, dates.size());
+        for (int day = 0; day < dates.size(); day++) {
+            assertEquals("Error: the pages skipped or repeated a day",
+                    TestUtilities.TEST_DATE + day * DAY_IN_MILLIS, (long) dates.get(day));
+        }
+    }
+
+    /**
+     * Pages through the weather table.
+     * @return location ID and date of every row, in the order the pages returned them
+     */
+    private List<long[]> readWeatherPages(String selection, String[] selectionArgs, int limit) {
+        List<long[]> keys = new ArrayList<long[]>();
+        long afterLocationId = 0;
+        long afterDate = 0;
+        while (true) {
+            Cursor page = mProvider.query(
+                    WeatherEntry.buildWeatherPage(afterLocationId, afterDate, limit),
+                    new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                    selection, selectionArgs, null);
+            int count = page.getCount();
+            while (page.moveToNext()) {
+                afterLocationId = page.getLong(0);
+                afterDate = page.getLong(1);
+                keys.add(new long[]{afterLocationId, afterDate});
+            }
+            page.close();
+            if (count < limit) {
+                return keys;
+            }
+        }
+    }
+
+    public void testWeatherPagesCoverEveryLocation() {
+        long[] locationRowIds = {insertLocation("1"), insertLocation("2"), insertLocation("3")};
+        for (long locationRowId : locationRowIds) {
+            insertDays(locationRowId, 10);
+        }
+
+        List<long[]> keys = readWeatherPages(null, null, 4);
+        assertEquals(30, keys.size());
+        for (int i = 1; i < keys.size(); i++) {
+            long[] previous = keys.get(i - 1);
+            long[] key = keys.get(i);
+            assertTrue("Error: the pages are out of key order at row " + i,
+                    key[0] > previous[0] || (key[0] == previous[0] && key[1] > previous[1]));
+        }
+    }
+
+    public void testWeatherPagesApplySelection() {
+        insertDays(insertLocation("1"), 10);
+        insertDays(insertLocation("2"), 10);
+
+        List<long[]> keys = readWeatherPages(WeatherEntry.COLUMN_WEATHER_ID + " = ?",
+                new String[]{"800"}, 3);
+        assertEquals(10, keys.size());
+    }
+
+    public void testPageSizeLimited() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 3);
+
+        Cursor page = mProvider.query(WeatherEntry.buildWeatherPage(0, 0, 0), null, null, null, null);
+        assertEquals(1, page.getCount());
+        page.close();
+        assertEquals(WeatherProvider.MAX_PAGE_SIZE,
+                WeatherProvider.getPageSize(WeatherProvider.MAX_PAGE_SIZE + 1));
+    }
+
+    // A limit that isn't a number is ignored instead of failing the query.
+    public void testInvalidLimitIsNoPage() {
+        insertDays(insertLocation(TestUtilities.TEST_LOCATION), 3);
+
+        for (String limit : new String[]{"", "abc"}) {
+            Cursor cursor = mProvider.query(WeatherEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(WeatherEntry.QUERY_LIMIT, limit).build(),
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals(3, cursor.getCount());
+            cursor.close();
+
+            cursor = mProvider.query(WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION)
+                    .buildUpon().appendQueryParameter(WeatherEntry.QUERY_LIMIT, limit).build(),
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals(3, cursor.getCount());
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the detail column of every row of the query plan
+     */
+    private static String[] explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        String[] details = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            details[i] = cursor.getString(detailIndex);
+        }
+        cursor.close();
+        return details;
+    }
+
+    private static void assertNoScans(SQLiteDatabase db, String sql, String[] args) {
+        String[] plan = explain(db, sql, args);
+        Log.d(LOG_TAG, sql + " -> " + Arrays.toString(plan));
+        assertTrue(plan.length > 0);
+        for (String detail : plan) {
+            assertFalse("Error: full scan in the plan of a page: " + detail,
+                    detail.startsWith("SCAN"));
+            assertFalse("Error: sort in the plan of a page: " + detail,
+                    detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    public void testPagePlans() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertNoScans(db, SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME,
+                null, WeatherProvider.sWeatherAfterKeySelection, null, null,
+                WeatherProvider.sWeatherKeyOrder, "100"),
+                new String[]{"1", "1", Long.toString(TestUtilities.TEST_DATE)});
+        assertNoScans(db, WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, WeatherProvider.sLocationSettingAfterDateSelection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC", "100"),
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    /**
+     * Adds up what the rows take in a CursorWindow: a 4 byte row slot and a 12 byte field slot
+     * per value, plus the bytes of every string, with its terminator, and blob.  Numbers live
+     * in their field slots.  Moves the cursor.
+     */
+    private static long getWindowBytes(Cursor cursor) {
+        long bytes = 0;
+        int columns = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            bytes += 4 + 12 * columns;
+            for (int column = 0; column < columns; column++) {
+                switch (cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_STRING:
+                        bytes += cursor.getString(column).getBytes().length + 1;
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        bytes += cursor.getBlob(column).length;
+                        break;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // How many rows the cursor's first window holds; a result that needs more than one window
+    // is copied across the binder again every time a reader moves past the end of one.
+    private static int getFirstWindowRows(Cursor cursor) {
+        cursor.moveToFirst();
+        return ((AbstractWindowedCursor) cursor).getWindow().getNumRows();
+    }
+
+    private static final int BENCHMARK_LOCATIONS = 200;
+    private static final int BENCHMARK_DAYS = 365;
+    private static final int[] BENCHMARK_PAGE_SIZES = {100, 500, WeatherProvider.MAX_PAGE_SIZE};
+
+    private static void populate(SQLiteDatabase db) {
+        SQLiteStatement insertLocation = db.compileStatement("INSERT INTO " + LocationEntry.TABLE_NAME
+                + " (" + LocationEntry._ID + ", " + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                + LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_COORD_LAT + ", "
+                + LocationEntry.COLUMN_COORD_LONG + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertWeather = db.compileStatement("INSERT INTO " + WeatherEntry.TABLE_NAME
+                + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_SHORT_DESC + ", " + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", " + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_HUMIDITY + ", " + WeatherEntry.COLUMN_PRESSURE + ", "
+                + WeatherEntry.COLUMN_WIND_SPEED + ", " + WeatherEntry.COLUMN_DEGREES
+                + ") VALUES (?, ?, 'Clear', 800, 10.5, 21.5, 55, 1013.25, 3.5, 180)");
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                insertLocation.bindLong(1, location);
+                insertLocation.bindString(2, "location" + location);
+                insertLocation.bindString(3, "City " + location);
+                insertLocation.bindDouble(4, location % 90);
+                insertLocation.bindDouble(5, location % 180);
+                insertLocation.executeInsert();
+            }
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                for (int location = 1; location <= BENCHMARK_LOCATIONS; location++) {
+                    insertWeather.bindLong(1, location);
+                    insertWeather.bindLong(2, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        insertLocation.close();
+        insertWeather.close();
+    }
+
+    // The whole weather table in one cursor, as a plain weather query returns it, against the
+    // same rows a page at a time.  The last page is also read with OFFSET, which has to step
+    // over every row before it.
+    public void testPageBytesBenchmark() {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        File path = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            new WeatherDbHelper(mContext).onCreate(db);
+            populate(db);
+
+            Cursor all = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                    WeatherProvider.sWeatherKeyOrder);
+            int rows = all.getCount();
+            int firstWindowRows = getFirstWindowRows(all);
+            long allBytes = getWindowBytes(all);
+            all.close();
+            Log.d(LOG_TAG, String.format("whole table: %d rows, %d KB, %d rows in the first "
+                    + "window", rows, allBytes / 1024, firstWindowRows));
+            assertTrue("Error: the benchmark table fits in one window", firstWindowRows < rows);
+
+            for (int pageSize : BENCHMARK_PAGE_SIZES) {
+                long afterLocationId = 0;
+                long afterDate = 0;
+                int pages = 0;
+                int pagedRows = 0;
+                long maxBytes = 0;
+                long totalBytes = 0;
+                long lastPageMicros = 0;
+                long start = System.nanoTime();
+                while (true) {
+                    long pageStart = System.nanoTime();
+                    Cursor page = WeatherProvider.queryWeatherPage(db, null, null, null,
+                            afterLocationId, afterDate, pageSize);
+                    int count = page.getCount();
+                    if (count == 0) {
+                        page.close();
+                        break;
+                    }
+                    assertEquals("Error: a page needed more than one window",
+                            count, getFirstWindowRows(page));
+                    page.moveToLast();
+                    afterLocationId = page.getLong(page.getColumnIndex(WeatherEntry.COLUMN_LOC_KEY));
+                    afterDate = page.getLong(page.getColumnIndex(WeatherEntry.COLUMN_DATE));
+                    lastPageMicros = (System.nanoTime() - pageStart) / 1000;
+                    long bytes = getWindowBytes(page);
+                    page.close();
+                    pages++;
+                    pagedRows += count;
+                    totalBytes += bytes;
+                    maxBytes = Math.max(maxBytes, bytes);
+                }
+                long totalMillis = (System.nanoTime() - start) / 1000000;
+                assertEquals("Error: the pages lost rows", rows, pagedRows);
+
+                long offsetStart = System.nanoTime();
+                Cursor offsetPage = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                        WeatherProvider.sWeatherKeyOrder, (rows - pageSize) + ", " + pageSize);
+                offsetPage.getCount();
+                offsetPage.close();
+                long offsetMicros = (System.nanoTime() - offsetStart) / 1000;
+
+                Log.d(LOG_TAG, String.format("pages of %4d: %4d pages in %5d ms, %6d bytes per "
+                                + "page on average, %6d at most; last page %6d us by key, %6d us "
+                                + "by OFFSET", pageSize, pages, totalMillis, totalBytes / pages,
+                        maxBytes, lastPageMicros, offsetMicros));
+            }
+        } finally {
+            db.close();
+        }
+    }
+}
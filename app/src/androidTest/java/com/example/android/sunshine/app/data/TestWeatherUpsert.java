@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestWeatherUpsert extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherUpsert.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static ContentValues[] createRows(long firstLocationId, int locations, int days,
+                                              double maxTemp) {
+        ContentValues[] values = new ContentValues[locations * days];
+        for (int location = 0; location < locations; location++) {
+            for (int day = 0; day < days; day++) {
+                ContentValues value = new ContentValues();
+                value.put(WeatherEntry.COLUMN_LOC_KEY, firstLocationId + location);
+                value.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS);
+                value.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                value.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                value.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+                value.put(WeatherEntry.COLUMN_MAX_TEMP, maxTemp);
+                value.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                value.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+                value.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                value.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                values[location * days + day] = value;
+            }
+        }
+        return values;
+    }
+
+    // Only complete rows go through the compiled statements; a partial one is left to the
+    // column-by-column upsert.
+    public void testPartialRowFallsBack() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        WeatherProvider.WeatherUpsert upsert = new WeatherProvider.WeatherUpsert(db);
+        try {
+            ContentValues[] values = createRows(1, 1, 2, 75);
+            values[0].remove(WeatherEntry.COLUMN_DEGREES);
+            WeatherChangeSet changeSet = new WeatherChangeSet();
+            assertFalse(upsert.upsert(values[0], changeSet));
+            assertTrue(changeSet.isEmpty());
+            assertEquals(0, changeSet.getUnchangedCount());
+
+            assertTrue(upsert.upsert(values[1], changeSet));
+            assertEquals(1, changeSet.getInsertedCount());
+
+            // Mixed rows are all written, whichever way they take: the complete one is new, and
+            // the partial one updates the columns it has.
+            ContentValues[] mixed = createRows(1, 1, 2, 80);
+            mixed[1].remove(WeatherEntry.COLUMN_DEGREES);
+            WeatherChangeSet mixedChanges = WeatherProvider.upsertWeather(db, mixed);
+            assertEquals(1, mixedChanges.getInsertedCount());
+            assertEquals(1, mixedChanges.getUpdatedCount());
+        } finally {
+            upsert.close();
+            db.close();
+        }
+    }
+
+    public void testBulkInsertThroughCompiledStatements() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createRows(locationRowId, 1, 14, 75)));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(14, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        assertEquals(75.0, cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+
+        // The same forecast again changes nothing; a warmer one changes every row.
+        assertEquals(0, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createRows(locationRowId, 1, 14, 75)));
+        assertEquals(14, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createRows(locationRowId, 1, 14, 76)));
+    }
+
+    // applyBatch() upserts every weather insert through the one WeatherUpsert its transaction
+    // keeps.
+    public void testApplyBatchReusesOneUpsert() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createRows(locationRowId, 1, 14, 75)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(14, results.length);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertNotNull(cursor);
+        assertEquals(14, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE + 13 * DAY_IN_MILLIS),
+                cursor.getLong(cursor.getColumnIndex(WeatherEntry.COLUMN_DATE)));
+        cursor.close();
+
+        // Applying the same rows again doesn't fail the batch on the rows it leaves alone.
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        for (ContentProviderResult result : results) {
+            assertEquals(WeatherEntry.UNCHANGED_URI, result.uri);
+        }
+    }
+
+    // The compiled-statement path has to agree with the column-by-column one, row for row.
+    public void testMatchesColumnUpsert() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            WeatherChangeSet first = WeatherProvider.upsertWeather(db, createRows(1, 2, 7, 75));
+            assertEquals(14, first.getInsertedCount());
+
+            WeatherChangeSet same = WeatherProvider.upsertWeatherColumns(db,
+                    createRows(1, 2, 7, 75));
+            assertEquals(14, same.getUnchangedCount());
+
+            WeatherChangeSet warmer = WeatherProvider.upsertWeather(db, createRows(1, 2, 7, 80));
+            assertEquals(14, warmer.getUpdatedCount());
+            assertEquals(0, warmer.getInsertedCount());
+
+            WeatherChangeSet unchanged = WeatherProvider.upsertWeather(db, createRows(1, 2, 7, 80));
+            assertEquals(14, unchanged.getUnchangedCount());
+        } finally {
+            db.close();
+        }
+    }
+
+    /*
+        Rows per second into an empty weather table, through the column-by-column upsert and
+        through the compiled statements, e.g.
+
+            adb logcat -s TestWeatherUpsert
+     */
+    public void testInsertBenchmark() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        try {
+            for (int rows : new int[]{14, 1000, 100000}) {
+                int days = Math.min(rows, 1000);
+
+                ContentValues[] values = createRows(1, rows / days, days, 75);
+                db.delete(WeatherEntry.TABLE_NAME, null, null);
+                long start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    assertEquals(rows,
+                            WeatherProvider.upsertWeatherColumns(db, values).getInsertedCount());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                long columnNanos = System.nanoTime() - start;
+
+                values = createRows(1, rows / days, days, 75);
+                db.delete(WeatherEntry.TABLE_NAME, null, null);
+                start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    assertEquals(rows, WeatherProvider.upsertWeather(db, values).getInsertedCount());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                long compiledNanos = System.nanoTime() - start;
+
+                Log.d(LOG_TAG, String.format("%6d rows: column by column %8.0f rows/s, "
+                                + "compiled statements %8.0f rows/s",
+                        rows, rows * 1e9 / columnNanos, rows * 1e9 / compiledNanos));
+            }
+        } finally {
+            db.delete(WeatherEntry.TABLE_NAME, null, null);
+            db.close();
+        }
+    }
+}
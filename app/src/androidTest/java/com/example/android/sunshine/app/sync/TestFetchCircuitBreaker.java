@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+
+import java.util.Random;
+
+public class TestFetchCircuitBreaker extends AndroidTestCase {
+
+    private static final long NOW = 1419033600000L;
+
+    private FetchCircuitBreaker mBreaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mBreaker = new FetchCircuitBreaker(mContext, new Random(42));
+        mBreaker.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBreaker.reset();
+        deleteWeather();
+        super.tearDown();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private boolean hasStoredForecast() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        Utility.getPreferredLocation(mContext), System.currentTimeMillis()),
+                null, null, null, null);
+        assertNotNull(cursor);
+        boolean stored = cursor.moveToFirst();
+        cursor.close();
+        return stored;
+    }
+
+    private static Bundle manualExtras() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        return extras;
+    }
+
+    public void testOpensAfterThreshold() {
+        for (int i = 1; i < FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(0, mBreaker.recordFailure(NOW));
+            assertEquals(FetchCircuitBreaker.STATE_CLOSED, mBreaker.getState(NOW));
+        }
+
+        long delay = mBreaker.recordFailure(NOW);
+        assertTrue(delay >= FetchCircuitBreaker.BASE_DELAY_MILLIS / 2);
+        assertTrue(delay <= FetchCircuitBreaker.BASE_DELAY_MILLIS);
+        assertEquals(FetchCircuitBreaker.STATE_OPEN, mBreaker.getState(NOW));
+        assertEquals(NOW + delay, mBreaker.getOpenUntil());
+        assertEquals(1, mBreaker.getTripCount());
+
+        assertFalse(mBreaker.allowRequest(NOW + 1));
+        assertEquals(1, mBreaker.getSuppressedCount());
+    }
+
+    public void testHalfOpenFailureDoublesDelay() {
+        long delay = 0;
+        for (int i = 0; i < FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            delay = mBreaker.recordFailure(NOW);
+        }
+
+        long retry = NOW + delay;
+        assertEquals(FetchCircuitBreaker.STATE_HALF_OPEN, mBreaker.getState(retry));
+        assertTrue(mBreaker.allowRequest(retry));
+
+        long secondDelay = mBreaker.recordFailure(retry);
+        assertTrue(secondDelay >= FetchCircuitBreaker.BASE_DELAY_MILLIS);
+        assertTrue(secondDelay <= 2 * FetchCircuitBreaker.BASE_DELAY_MILLIS);
+        assertEquals(2, mBreaker.getTripCount());
+    }
+
+    public void testSuccessCloses() {
+        for (int i = 0; i < FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            mBreaker.recordFailure(NOW);
+        }
+        mBreaker.recordSuccess();
+
+        assertEquals(FetchCircuitBreaker.STATE_CLOSED, mBreaker.getState(NOW));
+        assertEquals(0, mBreaker.getConsecutiveFailures());
+        assertTrue(mBreaker.allowRequest(NOW));
+    }
+
+    public void testDelayIsCappedAndJittered() {
+        Random random = new Random(7);
+        for (int attempt = 0; attempt < 64; attempt++) {
+            long delay = FetchCircuitBreaker.computeDelay(attempt, random);
+            assertTrue(delay > 0);
+            assertTrue(delay <= FetchCircuitBreaker.MAX_DELAY_MILLIS);
+        }
+        assertTrue(FetchCircuitBreaker.computeDelay(40, random)
+                >= FetchCircuitBreaker.MAX_DELAY_MILLIS / 2);
+    }
+
+    // Against the stand-in server: after enough 500s the adapter stops asking altogether,
+    // and tells the framework when to come back.
+    public void testSyncAdapterStopsFetching() throws Exception {
+        TestForecastServer server = new TestForecastServer();
+        SunshineSyncAdapter.setForecastBaseUrl(server.getBaseUrl());
+        try {
+            SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+            String authority = mContext.getString(R.string.content_authority);
+
+            // With nothing stored the breaker is ignored, so store a forecast first.
+            server.setBody(TestForecastPayloads.forecast(14));
+            syncAdapter.onPerformSync(null, new Bundle(), authority, null, new SyncResult());
+            assertTrue(hasStoredForecast());
+            int okRequests = server.getRequestLines().size();
+
+            server.setStatusCode(500);
+            server.setBody(TestForecastPayloads.SERVER_ERROR);
+            SyncResult syncResult = null;
+            for (int i = 0; i < FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+                syncResult = new SyncResult();
+                syncAdapter.onPerformSync(null, new Bundle(), authority, null, syncResult);
+                assertEquals(1, syncResult.stats.numIoExceptions);
+            }
+            assertTrue("Error: no delay asked of the sync framework", syncResult.delayUntil > 0);
+            assertEquals(okRequests + FetchCircuitBreaker.FAILURE_THRESHOLD,
+                    server.getRequestLines().size());
+
+            syncResult = new SyncResult();
+            syncAdapter.onPerformSync(null, new Bundle(), authority, null, syncResult);
+            assertEquals("Error: fetched while the breaker was open",
+                    okRequests + FetchCircuitBreaker.FAILURE_THRESHOLD,
+                    server.getRequestLines().size());
+            assertTrue(syncResult.delayUntil > 0);
+
+            Cursor cursor = mContext.getContentResolver().query(SyncStatsEntry.BREAKER_CONTENT_URI,
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertTrue(cursor.moveToFirst());
+            assertEquals(FetchCircuitBreaker.STATE_OPEN,
+                    cursor.getInt(cursor.getColumnIndex(SyncStatsEntry.COLUMN_BREAKER_STATE)));
+            assertEquals(1,
+                    cursor.getInt(cursor.getColumnIndex(SyncStatsEntry.COLUMN_SUPPRESSED_COUNT)));
+            cursor.close();
+        } finally {
+            SunshineSyncAdapter.setForecastBaseUrl(null);
+            server.shutdown();
+        }
+    }
+
+    // Failures while offline aren't the server's fault, so they never open the breaker.
+    public void testOfflineFailuresAreNotCounted() throws Exception {
+        TestForecastServer server = new TestForecastServer();
+        SunshineSyncAdapter.setForecastBaseUrl(server.getBaseUrl());
+        try {
+            server.setStatusCode(500);
+            server.setBody(TestForecastPayloads.SERVER_ERROR);
+            SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false) {
+                @Override
+                boolean isNetworkAvailable() {
+                    return false;
+                }
+            };
+            String authority = mContext.getString(R.string.content_authority);
+
+            for (int i = 0; i < 2 * FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+                SyncResult syncResult = new SyncResult();
+                syncAdapter.onPerformSync(null, new Bundle(), authority, null, syncResult);
+                assertEquals(1, syncResult.stats.numIoExceptions);
+                assertEquals(0, syncResult.delayUntil);
+            }
+            assertEquals(0, mBreaker.getConsecutiveFailures());
+            assertEquals(FetchCircuitBreaker.STATE_CLOSED,
+                    mBreaker.getState(System.currentTimeMillis()));
+            assertEquals(2 * FetchCircuitBreaker.FAILURE_THRESHOLD,
+                    server.getRequestLines().size());
+        } finally {
+            SunshineSyncAdapter.setForecastBaseUrl(null);
+            server.shutdown();
+        }
+    }
+
+    // An open breaker still lets through syncs the user asked for, and syncs of a location with
+    // no stored forecast.
+    public void testOpenBreakerLetsManualAndEmptySyncsThrough() throws Exception {
+        TestForecastServer server = new TestForecastServer();
+        SunshineSyncAdapter.setForecastBaseUrl(server.getBaseUrl());
+        try {
+            server.setBody(TestForecastPayloads.forecast(14));
+            SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+            String authority = mContext.getString(R.string.content_authority);
+            deleteWeather();
+
+            openBreaker();
+            syncAdapter.onPerformSync(null, new Bundle(), authority, null, new SyncResult());
+            assertEquals("Error: a location with nothing stored was not fetched",
+                    1, server.getRequestLines().size());
+            assertTrue(hasStoredForecast());
+
+            openBreaker();
+            syncAdapter.onPerformSync(null, new Bundle(), authority, null, new SyncResult());
+            assertEquals("Error: a periodic sync went through the open breaker",
+                    1, server.getRequestLines().size());
+
+            syncAdapter.onPerformSync(null, manualExtras(), authority, null, new SyncResult());
+            assertEquals("Error: a manual sync was not fetched",
+                    2, server.getRequestLines().size());
+            // and its success closed the breaker
+            assertEquals(FetchCircuitBreaker.STATE_CLOSED,
+                    mBreaker.getState(System.currentTimeMillis()));
+        } finally {
+            SunshineSyncAdapter.setForecastBaseUrl(null);
+            server.shutdown();
+        }
+    }
+
+    private void openBreaker() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < FetchCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            mBreaker.recordFailure(now);
+        }
+        assertEquals(FetchCircuitBreaker.STATE_OPEN, mBreaker.getState(now));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class TestForecastDownload extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastDownload.class.getSimpleName();
+
+    private TestForecastServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestForecastServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private ForecastJsonParser.ForecastResponse fetch(ForecastDownload[] downloadOut)
+            throws Exception {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mServer.getBaseUrl() + "q=94043").openConnection();
+        try {
+            ForecastDownload.prepareRequest(connection);
+            connection.connect();
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+
+            ForecastDownload download = ForecastDownload.open(connection);
+            assertNotNull(download);
+            try {
+                ForecastJsonParser.ForecastResponse response =
+                        ForecastJsonParser.parse(download.getReader());
+                downloadOut[0] = download;
+                return response;
+            } finally {
+                download.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public void testGzipResponse() throws Exception {
+        String body = TestForecastPayloads.forecast(14);
+        mServer.setBody(body);
+        mServer.setCompress(true);
+
+        ForecastDownload[] download = new ForecastDownload[1];
+        ForecastJsonParser.ForecastResponse response = fetch(download);
+
+        assertEquals("gzip", mServer.getLastRequestHeaders().get("accept-encoding"));
+        assertTrue(download[0].isCompressed());
+        assertEquals(14, response.days.size());
+        assertEquals(mServer.getLastResponseBytes(), download[0].getWireBytes());
+        assertEquals(body.getBytes(TestForecastServer.UTF_8).length, download[0].getDecodedBytes());
+        assertTrue("gzip should shrink a forecast payload",
+                download[0].getWireBytes() < download[0].getDecodedBytes());
+
+        Log.d(LOG_TAG, "14 day forecast: " + download[0].getWireBytes() + " wire bytes, "
+                + download[0].getDecodedBytes() + " decoded bytes");
+    }
+
+    public void testIdentityResponse() throws Exception {
+        String body = TestForecastPayloads.forecast(16);
+        mServer.setBody(body);
+        mServer.setCompress(false);
+
+        ForecastDownload[] download = new ForecastDownload[1];
+        ForecastJsonParser.ForecastResponse response = fetch(download);
+
+        assertFalse(download[0].isCompressed());
+        assertEquals(16, response.days.size());
+        assertEquals(download[0].getWireBytes(), download[0].getDecodedBytes());
+        assertEquals(body.getBytes(TestForecastServer.UTF_8).length, download[0].getWireBytes());
+    }
+
+    public void testUtf8CityName() throws Exception {
+        String body = TestForecastPayloads.forecast(1)
+                .replace(TestForecastPayloads.CITY_NAME, "S\u00e3o Paulo \u6771\u4eac");
+        mServer.setBody(body);
+        mServer.setCompress(true);
+
+        ForecastDownload[] download = new ForecastDownload[1];
+        assertEquals("S\u00e3o Paulo \u6771\u4eac", fetch(download).cityName);
+    }
+}
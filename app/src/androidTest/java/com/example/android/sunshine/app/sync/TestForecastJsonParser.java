@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    private static ForecastJsonParser.ForecastResponse parse(String json)
+            throws IOException, JSONException {
+        return ForecastJsonParser.parse(new StringReader(json));
+    }
+
+    public void testParseFourteenDays() throws Throwable {
+        ForecastJsonParser.ForecastResponse response = parse(TestForecastPayloads.forecast(14));
+
+        assertFalse(response.empty);
+        assertEquals(HttpURLConnection.HTTP_OK, response.messageCode);
+        assertEquals(TestForecastPayloads.CITY_NAME, response.cityName);
+        assertEquals(TestForecastPayloads.CITY_LAT, response.cityLatitude, 1e-6);
+        assertEquals(TestForecastPayloads.CITY_LON, response.cityLongitude, 1e-6);
+        assertEquals(14, response.days.size());
+
+        for (int i = 0; i < 14; i++) {
+            DayForecast day = response.days.get(i);
+            assertEquals(TestForecastPayloads.minTemp(i), day.low, 1e-6);
+            assertEquals(TestForecastPayloads.maxTemp(i), day.high, 1e-6);
+            assertEquals(TestForecastPayloads.pressure(i), day.pressure, 1e-6);
+            assertEquals(TestForecastPayloads.humidity(i), day.humidity);
+            assertEquals(TestForecastPayloads.windSpeed(i), day.windSpeed, 1e-6);
+            assertEquals(TestForecastPayloads.windDirection(i), day.windDirection, 1e-6);
+            assertEquals(TestForecastPayloads.weatherId(i), day.weatherId);
+            assertEquals(TestForecastPayloads.description(i), day.description);
+        }
+    }
+
+    public void testParseMatchesJsonObjectParser() throws Throwable {
+        String json = TestForecastPayloads.forecast(16);
+        List<DayForecast> streamed = parse(json).days;
+        List<DayForecast> tree = parseWithJsonObject(json);
+
+        assertEquals(tree.size(), streamed.size());
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(tree.get(i).high, streamed.get(i).high, 1e-9);
+            assertEquals(tree.get(i).low, streamed.get(i).low, 1e-9);
+            assertEquals(tree.get(i).pressure, streamed.get(i).pressure, 1e-9);
+            assertEquals(tree.get(i).humidity, streamed.get(i).humidity);
+            assertEquals(tree.get(i).windSpeed, streamed.get(i).windSpeed, 1e-9);
+            assertEquals(tree.get(i).windDirection, streamed.get(i).windDirection, 1e-9);
+            assertEquals(tree.get(i).weatherId, streamed.get(i).weatherId);
+            assertEquals(tree.get(i).description, streamed.get(i).description);
+        }
+    }
+
+    public void testMessageCodes() throws Throwable {
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                parse(TestForecastPayloads.NOT_FOUND).messageCode);
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR,
+                parse(TestForecastPayloads.SERVER_ERROR).messageCode);
+    }
+
+    public void testEmptyStream() throws Throwable {
+        assertTrue(parse(TestForecastPayloads.EMPTY).empty);
+    }
+
+    public void testMalformedInput() throws Throwable {
+        try {
+            parse(TestForecastPayloads.MALFORMED);
+            fail("Truncated payload should not parse");
+        } catch (JSONException expected) {
+            // the sync adapter maps this to LOCATION_STATUS_SERVER_INVALID
+        }
+
+        try {
+            parse("{\"cod\":\"200\",\"list\":[]}");
+            fail("Payload without a city should not parse");
+        } catch (JSONException expected) {
+        }
+
+        try {
+            parse("{\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}},\"list\":{}}");
+            fail("Payload with the wrong list type should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    /*
+        Compares the streaming parser against the String + JSONObject path it replaced.  Timings
+        and allocation counts go to logcat; the assertion only guards against the streaming path
+        allocating more than the tree it replaced.
+     */
+    public void testParserBenchmark() throws Throwable {
+        String[] payloads = {
+                TestForecastPayloads.forecast(14),
+                TestForecastPayloads.forecast(16)
+        };
+
+        for (String payload : payloads) {
+            for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+                parseWithJsonObject(readLikeSyncAdapterUsedTo(payload));
+                parse(payload);
+            }
+
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parseWithJsonObject(readLikeSyncAdapterUsedTo(payload));
+            }
+            long treeNanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            int treeAllocs = Debug.getThreadAllocCount();
+            Debug.resetThreadAllocCount();
+
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parse(payload);
+            }
+            long streamNanos = System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            int streamAllocs = Debug.getThreadAllocCount();
+            Debug.resetThreadAllocCount();
+
+            Log.d(LOG_TAG, "payload " + payload.length() + " chars: "
+                    + "JSONObject " + (treeNanos / BENCHMARK_ITERATIONS / 1000) + " us/parse, "
+                    + (treeAllocs / BENCHMARK_ITERATIONS) + " allocs/parse; "
+                    + "JsonReader " + (streamNanos / BENCHMARK_ITERATIONS / 1000) + " us/parse, "
+                    + (streamAllocs / BENCHMARK_ITERATIONS) + " allocs/parse");
+
+            if (treeAllocs > 0) {
+                assertTrue("Streaming parser allocated more than the JSONObject tree",
+                        streamAllocs <= treeAllocs);
+            }
+        }
+    }
+
+    // The line-by-line StringBuffer copy onPerformSync used to make before parsing.
+    private static String readLikeSyncAdapterUsedTo(String payload) throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(payload));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        return buffer.toString();
+    }
+
+    // The org.json parse getWeatherDataFromJson used before the streaming parser.
+    private static List<DayForecast> parseWithJsonObject(String forecastJsonStr)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        JSONArray weatherArray = forecastJson.getJSONArray(ForecastJsonParser.OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(ForecastJsonParser.OWM_CITY);
+        cityJson.getString(ForecastJsonParser.OWM_CITY_NAME);
+        JSONObject cityCoord = cityJson.getJSONObject(ForecastJsonParser.OWM_COORD);
+        cityCoord.getDouble(ForecastJsonParser.OWM_LATITUDE);
+        cityCoord.getDouble(ForecastJsonParser.OWM_LONGITUDE);
+
+        List<DayForecast> days = new ArrayList<DayForecast>(weatherArray.length());
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(ForecastJsonParser.OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject =
+                    dayForecast.getJSONObject(ForecastJsonParser.OWM_TEMPERATURE);
+            days.add(new DayForecast(
+                    dayForecast.getDouble(ForecastJsonParser.OWM_PRESSURE),
+                    dayForecast.getInt(ForecastJsonParser.OWM_HUMIDITY),
+                    dayForecast.getDouble(ForecastJsonParser.OWM_WINDSPEED),
+                    dayForecast.getDouble(ForecastJsonParser.OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(ForecastJsonParser.OWM_MAX),
+                    temperatureObject.getDouble(ForecastJsonParser.OWM_MIN),
+                    weatherObject.getString(ForecastJsonParser.OWM_DESCRIPTION),
+                    weatherObject.getInt(ForecastJsonParser.OWM_WEATHER_ID)));
+        }
+        return days;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/*
+    Recorded OpenWeatherMap daily forecast responses, used by the sync tests and benchmarks.
+    The day objects follow the shape of a real /data/2.5/forecast/daily?mode=json response,
+    including the fields Sunshine ignores, so the parsers have to skip them just like on device.
+ */
+public class TestForecastPayloads {
+    static final String CITY_NAME = "Mountain View";
+    static final double CITY_LAT = 37.3861;
+    static final double CITY_LON = -122.0839;
+
+    static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+    static final String SERVER_ERROR = "{\"cod\":\"500\",\"message\":\"Internal error\"}";
+    static final String MALFORMED = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.0839,\"lat\":37.3861}},\"cod\":\"200\",\"list\":[{\"dt\":14";
+    static final String EMPTY = "";
+
+    /**
+     * Builds a response with the given number of days.  OWM answers cnt=14 and cnt=16 requests
+     * with exactly this layout; the values are deterministic so tests can assert on them.
+     */
+    static String forecast(int numDays) {
+        StringBuilder sb = new StringBuilder(512 + numDays * 320);
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"").append(CITY_NAME)
+                .append("\",\"coord\":{\"lon\":").append(CITY_LON)
+                .append(",\"lat\":").append(CITY_LAT)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0132,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f,"
+                            + "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"%s\","
+                            + "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1419033600L + i * 86400L,
+                    18.5 + i, minTemp(i), maxTemp(i), 11.2 + i, 17.0 + i, 12.3 + i,
+                    pressure(i), humidity(i),
+                    weatherId(i), description(i), "sky is " + description(i).toLowerCase(Locale.US),
+                    windSpeed(i), windDirection(i), i % 100));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    static double minTemp(int day) {
+        return 10.25 + day;
+    }
+
+    static double maxTemp(int day) {
+        return 21.75 + day;
+    }
+
+    static double pressure(int day) {
+        return 1012.5 + day;
+    }
+
+    static int humidity(int day) {
+        return 40 + day;
+    }
+
+    static double windSpeed(int day) {
+        return 2.5 + day;
+    }
+
+    static int windDirection(int day) {
+        return (day * 37) % 360;
+    }
+
+    static int weatherId(int day) {
+        return day % 2 == 0 ? 800 : 500;
+    }
+
+    static String description(int day) {
+        return day % 2 == 0 ? "Clear" : "Rain";
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A tiny HTTP/1.1 stand-in for the OpenWeatherMap server, bound to the loopback interface.
+    It answers every request with the configured body, or the body set for a part of the query
+    the request carries, gzip-compressed when the server is set to compress and the client sent
+    Accept-Encoding: gzip.  One request per connection.
+
+    Responses can be slowed down to look like a real network: a fixed latency before the status
+    line, and a bandwidth cap on the body.  Every request line is recorded, so tests can check
+    what the sync adapter asked for.
+ */
+public class TestForecastServer {
+    static final String LOG_TAG = TestForecastServer.class.getSimpleName();
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+
+    private volatile String mBody = "";
+    private volatile String mETag;
+    private final Map<String, String> mBodiesByQuery =
+            Collections.synchronizedMap(new HashMap<String, String>());
+    private volatile int mStatusCode = 200;
+    private volatile boolean mCompress;
+    private volatile long mLatencyMillis;
+    private volatile long mBytesPerSecond;
+
+    private final List<String> mRequestLines = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile Map<String, String> mLastRequestHeaders;
+    private volatile long mLastResponseBytes;
+
+    public TestForecastServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "TestForecastServer");
+        mThread.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/forecast/daily?";
+    }
+
+    public void setBody(String body) {
+        mBody = body;
+    }
+
+    /**
+     * Answers requests whose query contains the given text, e.g. "q=94043", with another body.
+     */
+    public void setBody(String queryPart, String body) {
+        mBodiesByQuery.put(queryPart, body);
+    }
+
+    /**
+     * Sends this ETag with every response, or none for null.
+     */
+    public void setETag(String eTag) {
+        mETag = eTag;
+    }
+
+    public void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    public void setCompress(boolean compress) {
+        mCompress = compress;
+    }
+
+    /**
+     * Delays every response by this long before the status line is sent, like a round trip.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Caps the rate the body is written at.  Zero means as fast as the socket goes.
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /** @return a copy of the request lines received so far, e.g. "GET /data/2.5/...?q=94043 HTTP/1.1" */
+    public List<String> getRequestLines() {
+        synchronized (mRequestLines) {
+            return new ArrayList<String>(mRequestLines);
+        }
+    }
+
+    /** @return the headers of the last request, with lower-case names */
+    public Map<String, String> getLastRequestHeaders() {
+        return mLastRequestHeaders;
+    }
+
+    /** @return the number of body bytes written for the last response */
+    public long getLastResponseBytes() {
+        return mLastResponseBytes;
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+        try {
+            mThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (SocketException e) {
+                // shutdown() closed the socket
+                return;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error accepting connection", e);
+                return;
+            }
+            try {
+                handle(socket);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error answering request", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing connection", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), UTF_8));
+        String requestLine = in.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        mRequestLines.add(requestLine);
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        mLastRequestHeaders = headers;
+        respond(socket.getOutputStream(), headers, getBody(requestLine));
+    }
+
+    private String getBody(String requestLine) {
+        synchronized (mBodiesByQuery) {
+            for (Map.Entry<String, String> entry : mBodiesByQuery.entrySet()) {
+                if (requestLine.contains(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return mBody;
+    }
+
+    void respond(OutputStream out, Map<String, String> requestHeaders, String bodyText)
+            throws IOException {
+        String acceptEncoding = requestHeaders.get("accept-encoding");
+        boolean gzip = mCompress && acceptEncoding != null && acceptEncoding.contains("gzip");
+
+        byte[] body = bodyText.getBytes(UTF_8);
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipStream = new GZIPOutputStream(compressed);
+            gzipStream.write(body);
+            gzipStream.close();
+            body = compressed.toByteArray();
+        }
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(mStatusCode).append(" Stand-in\r\n");
+        head.append("Content-Type: application/json; charset=utf-8\r\n");
+        if (gzip) {
+            head.append("Content-Encoding: gzip\r\n");
+        }
+        String eTag = mETag;
+        if (eTag != null) {
+            head.append("ETag: ").append(eTag).append("\r\n");
+        }
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        if (mLatencyMillis > 0) {
+            SystemClock.sleep(mLatencyMillis);
+        }
+        out.write(head.toString().getBytes(UTF_8));
+        writeThrottled(out, body);
+        out.flush();
+        mLastResponseBytes = body.length;
+    }
+
+    private void writeThrottled(OutputStream out, byte[] body) throws IOException {
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        // Write in chunks of about 1/20th of a second's worth, pacing against the start time.
+        int chunk = (int) Math.max(1, Math.min(body.length, bytesPerSecond / 20));
+        long start = SystemClock.elapsedRealtime();
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            int count = Math.min(chunk, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            long due = start + (offset + count) * 1000L / bytesPerSecond;
+            long wait = due - SystemClock.elapsedRealtime();
+            if (wait > 0) {
+                SystemClock.sleep(wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+    Runs all-locations syncs against TestForecastServer: every stored location gets its own
+    status, the preferred one also sets the global status, and a location the server has no
+    forecast for loses the validators of its last good fetch.
+ */
+public class TestSyncAllLocations extends AndroidTestCase {
+
+    private static final String PREFERRED_LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+    // The sync adapter asks for every location but the preferred one by its stored coordinates.
+    private static final String OTHER_QUERY = "lat=";
+    private static final String ETAG = "\"forecast-v1\"";
+
+    private TestForecastServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private Map<String, ?> mSavedPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestForecastServer();
+        mServer.setBody(TestForecastPayloads.forecast(14));
+        mServer.setETag(ETAG);
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getBaseUrl());
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPreferences = prefs.getAll();
+        prefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), PREFERRED_LOCATION)
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+        SettingsSnapshot.publish(mContext);
+
+        deleteWeather();
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        // Where the server says its city is, so the query doesn't change between syncs.
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                TestForecastPayloads.CITY_NAME);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                TestForecastPayloads.CITY_LAT);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                TestForecastPayloads.CITY_LON);
+        assertNotNull(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, location));
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setForecastBaseUrl(null);
+        ForecastValidatorStore validators = new ForecastValidatorStore(mContext);
+        for (String requestLine : mServer.getRequestLines()) {
+            validators.clear(getQuery(requestLine));
+        }
+        mServer.shutdown();
+        new FetchCircuitBreaker(mContext).reset();
+        deleteWeather();
+
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit().clear();
+        for (Map.Entry<String, ?> entry : mSavedPreferences.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+        SettingsSnapshot.publish(mContext);
+        super.tearDown();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " IN (?, ?)",
+                new String[]{PREFERRED_LOCATION, OTHER_LOCATION});
+    }
+
+    private int countWeatherRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private SyncResult syncAllLocations() {
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, extras, mContext.getString(R.string.content_authority),
+                null, syncResult);
+        return syncResult;
+    }
+
+    private SyncResult syncPreferredLocation() {
+        SyncResult syncResult = new SyncResult();
+        mSyncAdapter.onPerformSync(null, new Bundle(),
+                mContext.getString(R.string.content_authority), null, syncResult);
+        return syncResult;
+    }
+
+    // The validator key of a request: its query, as the adapter built it.
+    private static String getQuery(String requestLine) {
+        int start = requestLine.indexOf('?') + 1;
+        int end = requestLine.lastIndexOf(' ');
+        return requestLine.substring(start, end);
+    }
+
+    private String findQuery(String part) {
+        List<String> requestLines = mServer.getRequestLines();
+        for (int i = requestLines.size() - 1; i >= 0; i--) {
+            if (requestLines.get(i).contains(part)) {
+                return getQuery(requestLines.get(i));
+            }
+        }
+        fail("Error: no request for " + part);
+        return null;
+    }
+
+    public void testEveryLocationGetsItsOwnStatus() {
+        mServer.setBody(OTHER_QUERY, TestForecastPayloads.NOT_FOUND);
+        SyncResult syncResult = syncAllLocations();
+
+        assertEquals(2, mServer.getRequestLines().size());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext, PREFERRED_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext, OTHER_LOCATION));
+        // Only the preferred location sets the status the UI watches.
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(14, countWeatherRows(PREFERRED_LOCATION));
+        assertEquals(0, countWeatherRows(OTHER_LOCATION));
+        assertEquals(14, syncResult.stats.numEntries);
+    }
+
+    public void testPreferredLocationSetsGlobalStatus() {
+        mServer.setBody("q=" + PREFERRED_LOCATION, TestForecastPayloads.NOT_FOUND);
+        syncAllLocations();
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext, PREFERRED_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                Utility.getLocationStatus(mContext, OTHER_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(14, countWeatherRows(OTHER_LOCATION));
+    }
+
+    public void testBadResponseClearsValidators() {
+        syncAllLocations();
+        ForecastValidatorStore validators = new ForecastValidatorStore(mContext);
+        String otherQuery = findQuery(OTHER_QUERY);
+        String preferredQuery = findQuery("q=" + PREFERRED_LOCATION);
+        assertEquals(ETAG, validators.getETag(otherQuery));
+        assertEquals(ETAG, validators.getETag(preferredQuery));
+
+        // The other location's forecast goes missing on the server.
+        mServer.setBody(OTHER_QUERY, TestForecastPayloads.NOT_FOUND);
+        syncAllLocations();
+        assertNull(validators.getETag(otherQuery));
+        assertEquals(ETAG, validators.getETag(preferredQuery));
+
+        // And so does the preferred one, synced on its own.
+        mServer.setBody("q=" + PREFERRED_LOCATION, TestForecastPayloads.SERVER_ERROR);
+        syncPreferredLocation();
+        assertNull(validators.getETag(preferredQuery));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+    }
+}
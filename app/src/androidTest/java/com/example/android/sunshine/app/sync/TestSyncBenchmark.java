@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Map;
+
+/*
+    Drives onPerformSync end to end against TestForecastServer on the loopback interface, so it
+    needs no network at all.  Each scenario replays one recorded payload a number of times and
+    logs the throughput and the p50/p90/max of every pipeline stage from SyncStats, e.g.
+
+        adb logcat -s TestSyncBenchmark
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+
+    private static final String LOCATION = "94043";
+
+    private TestForecastServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+    private Map<String, ?> mSavedPreferences;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new TestForecastServer();
+        SunshineSyncAdapter.setForecastBaseUrl(mServer.getBaseUrl());
+
+        // Sync a plain location string, and keep the daily notification out of the way.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedPreferences = prefs.getAll();
+        prefs.edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION)
+                .remove(mContext.getString(R.string.pref_location_latitude))
+                .remove(mContext.getString(R.string.pref_location_longitude))
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+        // Written off the main thread, so the listener would only hear about it later.
+        SettingsSnapshot.publish(mContext);
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SunshineSyncAdapter.setForecastBaseUrl(null);
+        mServer.shutdown();
+        SyncStats.clear();
+        new FetchCircuitBreaker(mContext).reset();
+        deleteWeather();
+
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit().clear();
+        for (Map.Entry<String, ?> entry : mSavedPreferences.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        editor.commit();
+        SettingsSnapshot.publish(mContext);
+        super.tearDown();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION),
+                null, null, null, null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    /**
+     * Runs a number of syncs against whatever the server is set up to answer, starting each one
+     * from an empty weather table so every run does the full insert and publish, and logs the
+     * results.
+     */
+    private void runScenario(String name, int iterations) {
+        SyncStats.clear();
+        long totalMillis = 0;
+        long bodyBytes = 0;
+        FetchCircuitBreaker breaker = new FetchCircuitBreaker(mContext);
+        for (int i = 0; i < iterations; i++) {
+            deleteWeather();
+            // Measure every failing fetch, rather than the breaker skipping them.
+            breaker.reset();
+            long start = SystemClock.elapsedRealtime();
+            mSyncAdapter.onPerformSync(null, new Bundle(),
+                    mContext.getString(R.string.content_authority), null, new SyncResult());
+            totalMillis += SystemClock.elapsedRealtime() - start;
+            bodyBytes += mServer.getLastResponseBytes();
+        }
+
+        Log.d(LOG_TAG, String.format("%s: %d syncs in %d ms, %.1f syncs/s, %.1f KB/s on the wire",
+                name, iterations, totalMillis,
+                iterations * 1000.0 / Math.max(1, totalMillis),
+                bodyBytes / 1.024 / Math.max(1, totalMillis)));
+        for (String stage : SyncStats.getStageNames()) {
+            long[] millis = SyncStats.getSortedMillis(stage);
+            Log.d(LOG_TAG, String.format("  %-20s n=%3d p50=%5d p90=%5d max=%5d ms",
+                    stage, millis.length,
+                    SyncStats.percentile(millis, 50),
+                    SyncStats.percentile(millis, 90),
+                    SyncStats.percentile(millis, 100)));
+        }
+        assertEquals(iterations, SyncStats.getSortedMillis(SyncTimings.STAGE_TOTAL).length);
+    }
+
+    public void testFourteenDaysLoopback() {
+        mServer.setBody(TestForecastPayloads.forecast(14));
+        mServer.setCompress(true);
+        runScenario("14 days, loopback", 20);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(14, countWeatherRows());
+        assertTrue(mServer.getRequestLines().get(0).contains("q=" + LOCATION));
+        assertTrue(SyncStats.getSortedMillis(SyncTimings.STAGE_INSERT).length > 0);
+    }
+
+    public void testFourteenDaysSlowNetwork() {
+        // Roughly a poor 3G connection.
+        mServer.setBody(TestForecastPayloads.forecast(14));
+        mServer.setCompress(true);
+        mServer.setLatencyMillis(300);
+        mServer.setBytesPerSecond(8 * 1024);
+        runScenario("14 days, 300 ms / 8 KB/s", 5);
+
+        assertEquals(14, countWeatherRows());
+        long[] ttfb = SyncStats.getSortedMillis(SyncTimings.STAGE_TTFB);
+        assertTrue("Error: the injected latency did not show up as TTFB",
+                SyncStats.percentile(ttfb, 50) >= 300);
+    }
+
+    public void testSixteenDaysUncompressed() {
+        mServer.setBody(TestForecastPayloads.forecast(16));
+        mServer.setCompress(false);
+        runScenario("16 days, identity", 20);
+
+        assertEquals(16, countWeatherRows());
+    }
+
+    public void testNotFound() {
+        mServer.setBody(TestForecastPayloads.NOT_FOUND);
+        runScenario("cod 404", 20);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, Utility.getLocationStatus(mContext));
+        assertEquals(0, countWeatherRows());
+    }
+
+    public void testMalformed() {
+        mServer.setBody(TestForecastPayloads.MALFORMED);
+        runScenario("malformed", 20);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                Utility.getLocationStatus(mContext));
+        assertEquals(0, countWeatherRows());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncPublisher extends AndroidTestCase {
+
+    private static final TodayForecast TODAY =
+            new TodayForecast("94043", 1419033600L, 800, 21.5, 12.25, "Clear");
+
+    // Every consumer waits for all the others to start, so this only finishes if they all run
+    // at the same time.  publish() itself must not wait for any of them.
+    public void testConsumersRunConcurrently() throws InterruptedException {
+        final int consumerCount = 3;
+        final CountDownLatch started = new CountDownLatch(consumerCount);
+        final CountDownLatch finished = new CountDownLatch(consumerCount);
+        final TodayForecast[] seen = new TodayForecast[consumerCount];
+
+        SyncPublisher publisher = new SyncPublisher();
+        for (int i = 0; i < consumerCount; i++) {
+            final int index = i;
+            publisher.addConsumer("consumer" + i, new SyncPublisher.Consumer() {
+                @Override
+                public void publish(TodayForecast today) {
+                    seen[index] = today;
+                    started.countDown();
+                    try {
+                        started.await(5, TimeUnit.SECONDS);
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.countDown();
+                }
+            });
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        publisher.publish(TODAY);
+        long publishTime = SystemClock.elapsedRealtime() - startTime;
+
+        assertTrue("Error: publish() waited for its consumers", publishTime < 200);
+        assertTrue("Error: consumers did not all run at once",
+                finished.await(5, TimeUnit.SECONDS));
+        for (TodayForecast today : seen) {
+            assertSame(TODAY, today);
+        }
+
+        // The latency is recorded after the consumer returns.
+        SystemClock.sleep(100);
+        for (int i = 0; i < consumerCount; i++) {
+            Long latency = SyncPublisher.getLastLatencies().get("consumer" + i);
+            assertNotNull("Error: no latency recorded for consumer" + i, latency);
+            assertTrue(latency >= 200);
+        }
+    }
+
+    public void testFailingConsumerDoesNotStopOthers() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        new SyncPublisher()
+                .addConsumer("broken", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        throw new IllegalStateException("broken consumer");
+                    }
+                })
+                .addConsumer("working", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        ran.countDown();
+                    }
+                })
+                .publish(null);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "99705";
+    private static final long NOW = 1419033600000L;
+
+    private SyncRequestCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCoalescer = new SyncRequestCoalescer(mContext);
+        mCoalescer.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCoalescer.reset();
+        super.tearDown();
+    }
+
+    // A watch reconnect fires several triggers at once; only the first one should sync.
+    public void testBurstCollapses() {
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, NOW));
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, NOW + 100));
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, NOW + 1000));
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, NOW + 5000));
+
+        assertEquals(1, mCoalescer.getRequestedCount());
+        assertEquals(3, mCoalescer.getCollapsedCount());
+
+        // Once the window has passed, and with nothing synced yet, we ask again.
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION,
+                NOW + SyncRequestCoalescer.DEFAULT_WINDOW_MILLIS));
+        assertEquals(2, mCoalescer.getRequestedCount());
+    }
+
+    public void testConfigurableWindow() {
+        SyncRequestCoalescer.setWindowMillis(1000);
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, NOW));
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, NOW + 999));
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, NOW + 2000));
+    }
+
+    // Changing the location must sync right away, even in the middle of a burst.
+    public void testNewLocationIsNotCollapsed() {
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, NOW));
+        assertTrue(mCoalescer.shouldRequestSync(OTHER_LOCATION, NOW + 100));
+        assertEquals(0, mCoalescer.getCollapsedCount());
+    }
+
+    public void testFreshDataIsNotResynced() {
+        mCoalescer.recordSync(LOCATION, NOW);
+
+        long later = NOW + SyncRequestCoalescer.DEFAULT_WINDOW_MILLIS + 1;
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, later));
+        assertEquals(1, mCoalescer.getFreshCount());
+
+        // Only that location is fresh.
+        assertTrue(mCoalescer.shouldRequestSync(OTHER_LOCATION, later));
+
+        // And only for so long.
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION,
+                NOW + SyncRequestCoalescer.DEFAULT_FRESHNESS_MILLIS));
+    }
+
+    // The user changing location, or a watch face asking for the weather, syncs even if the
+    // location just synced; only a burst of those requests collapses.
+    public void testRequestedSyncSkipsFreshnessCheck() {
+        mCoalescer.recordSync(LOCATION, NOW);
+
+        long later = NOW + SyncRequestCoalescer.DEFAULT_WINDOW_MILLIS + 1;
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, later, false));
+        assertFalse(mCoalescer.shouldRequestSync(LOCATION, later + 100, false));
+
+        assertEquals(1, mCoalescer.getRequestedCount());
+        assertEquals(1, mCoalescer.getCollapsedCount());
+        assertEquals(0, mCoalescer.getFreshCount());
+    }
+
+    public void testFreshnessCheckCanBeTurnedOff() {
+        SyncRequestCoalescer.setFreshnessMillis(0);
+        mCoalescer.recordSync(LOCATION, NOW);
+        assertTrue(mCoalescer.shouldRequestSync(LOCATION, NOW + 1));
+    }
+}
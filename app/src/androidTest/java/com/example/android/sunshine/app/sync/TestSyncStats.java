@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncStatsEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TestSyncStats extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncStats.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncStats.clear();
+        super.tearDown();
+    }
+
+    private static SyncTimings syncWithConnectMillis(long millis) {
+        SyncTimings timings = new SyncTimings();
+        timings.addNanos(SyncTimings.STAGE_CONNECT, TimeUnit.MILLISECONDS.toNanos(millis));
+        return timings;
+    }
+
+    public void testStagesAddUp() {
+        SyncTimings timings = new SyncTimings();
+        timings.addNanos(SyncTimings.STAGE_DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(30));
+        timings.addNanos(SyncTimings.STAGE_DOWNLOAD, TimeUnit.MILLISECONDS.toNanos(12));
+
+        assertEquals(42, timings.getMillis(SyncTimings.STAGE_DOWNLOAD));
+        assertEquals(-1, timings.getMillis(SyncTimings.STAGE_PARSE));
+    }
+
+    public void testRingBufferKeepsNewest() {
+        for (int i = 1; i <= SyncStats.CAPACITY + 10; i++) {
+            SyncStats.record(syncWithConnectMillis(i));
+        }
+
+        List<SyncTimings> recent = SyncStats.getRecent();
+        assertEquals(SyncStats.CAPACITY, recent.size());
+        assertEquals(SyncStats.CAPACITY + 10, recent.get(0).getMillis(SyncTimings.STAGE_CONNECT));
+        assertEquals(11, recent.get(recent.size() - 1).getMillis(SyncTimings.STAGE_CONNECT));
+    }
+
+    public void testPercentiles() {
+        for (int i = 1; i <= 20; i++) {
+            SyncStats.record(syncWithConnectMillis(i * 10));
+        }
+        long[] millis = SyncStats.getSortedMillis(SyncTimings.STAGE_CONNECT);
+
+        assertEquals(20, millis.length);
+        assertEquals(100, SyncStats.percentile(millis, 50));
+        assertEquals(180, SyncStats.percentile(millis, 90));
+        assertEquals(200, SyncStats.percentile(millis, 99));
+        assertEquals(200, SyncStats.percentile(millis, 100));
+        assertEquals(-1, SyncStats.percentile(new long[0], 50));
+    }
+
+    public void testProviderSummary() {
+        for (int i = 1; i <= 4; i++) {
+            SyncStats.record(syncWithConnectMillis(i));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncStatsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(SyncTimings.STAGE_CONNECT,
+                cursor.getString(cursor.getColumnIndex(SyncStatsEntry.COLUMN_STAGE)));
+        assertEquals(4, cursor.getInt(cursor.getColumnIndex(SyncStatsEntry.COLUMN_COUNT)));
+        assertEquals(2, cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_P50)));
+        assertEquals(4, cursor.getLong(cursor.getColumnIndex(SyncStatsEntry.COLUMN_MAX)));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(SyncStatsEntry.RECENT_CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(4, cursor.getCount());
+        cursor.close();
+    }
+
+    // Without the source the app registers, the provider still answers, with no rows.
+    public void testProviderWithoutSource() {
+        SyncStats.record(syncWithConnectMillis(1));
+        WeatherProvider.setSyncStatsSource(null);
+        try {
+            Cursor cursor = mContext.getContentResolver().query(SyncStatsEntry.CONTENT_URI,
+                    null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals(0, cursor.getCount());
+            assertTrue(cursor.getColumnIndex(SyncStatsEntry.COLUMN_P50) != -1);
+            cursor.close();
+        } finally {
+            WeatherProvider.setSyncStatsSource(new SyncStatsRows(mContext));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncStatsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Remembers the temperatures and dates {@link Utility} has formatted, so the forecast list and
+ * the widgets, which format the same few dozen of them over and over, get them back without
+ * reading a preference or building a formatter.  Temperatures are kept by the whole degree they
+ * round to in the unit the user picked, dates by their day relative to today; either lot is
+ * thrown away when the unit, the locale, the time zone or the day changes.
+ */
+public class ForecastFormatter {
+    // Whole degrees, in either unit, that get remembered.  Anything else is formatted each time.
+    static final int MIN_CACHED_TEMPERATURE = -150;
+    static final int MAX_CACHED_TEMPERATURE = 200;
+
+    // Days from today that get remembered: the recent past and the whole forecast.
+    static final int MIN_CACHED_DAY = -7;
+    static final int MAX_CACHED_DAY = 31;
+
+    private static final int DAYS_IN_A_WEEK = 7;
+
+    private static ForecastFormatter sInstance;
+
+    // What the caches below were filled for.
+    private boolean mMetric = true;
+    private Locale mLocale;
+    private long mTodayStartMillis;
+    private long mTomorrowStartMillis;
+    private long mGmtoff;
+    private int mTodayJulianDay;
+    private boolean mTimeChanged = true;
+
+    // indexed by the rounded temperature less MIN_CACHED_TEMPERATURE
+    private final String[] mTemperatures =
+            new String[MAX_CACHED_TEMPERATURE - MIN_CACHED_TEMPERATURE + 1];
+    // "-0" is what anything just below zero rounds to, and has no slot above.
+    private String mNegativeZero;
+
+    // "Today, June 8", the only day with a long form.
+    private String mLongToday;
+    // indexed by the day from today less MIN_CACHED_DAY
+    private final String[] mFriendlyDays = new String[MAX_CACHED_DAY - MIN_CACHED_DAY + 1];
+    private final String[] mFullFriendlyDays = new String[mFriendlyDays.length];
+    private final String[] mDayNames = new String[mFriendlyDays.length];
+    private final String[] mMonthDays = new String[mFriendlyDays.length];
+
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    /**
+     * @return the formatter of the application the context belongs to
+     */
+    public static synchronized ForecastFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ForecastFormatter(Context context) {
+        // The day and the time zone can change without the clock passing midnight.
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onTimeChanged();
+            }
+        }, filter);
+    }
+
+    // What the broadcasts above trigger.
+    synchronized void onTimeChanged() {
+        mTimeChanged = true;
+    }
+
+    /**
+     * Same as {@link Utility#formatTemperature}.
+     */
+    public synchronized String formatTemperature(Context context, double temperature) {
+        checkLocale();
+        boolean metric = SettingsSnapshot.get(context).isMetric();
+        if (metric != mMetric) {
+            mMetric = metric;
+            clearTemperatures();
+        }
+        if (!metric) {
+            temperature = (temperature * 1.8) + 32;
+        }
+
+        // The format rounds half away from zero, to no decimals.  Take the fraction apart
+        // rather than adding a half, which can round up in the addition itself.
+        double magnitude = Math.abs(temperature);
+        double rounded = Math.floor(magnitude);
+        if (magnitude - rounded >= 0.5) {
+            rounded++;
+        }
+        boolean negative = temperature < 0 || (temperature == 0 && 1 / temperature < 0);
+        double degrees = negative ? -rounded : rounded;
+        // NaN fails this too
+        if (!(degrees >= MIN_CACHED_TEMPERATURE && degrees <= MAX_CACHED_TEMPERATURE)) {
+            return format(context, temperature);
+        }
+        if (negative && rounded == 0) {
+            if (mNegativeZero == null) {
+                mNegativeZero = format(context, temperature);
+            }
+            return mNegativeZero;
+        }
+
+        int index = (int) degrees - MIN_CACHED_TEMPERATURE;
+        String formatted = mTemperatures[index];
+        if (formatted == null) {
+            formatted = format(context, temperature);
+            mTemperatures[index] = formatted;
+        }
+        return formatted;
+    }
+
+    private static String format(Context context, double temperature) {
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+
+    /**
+     * Same as {@link Utility#getFriendlyDayString}.
+     */
+    public synchronized String getFriendlyDayString(Context context, long dateInMillis,
+                                                    boolean displayLongToday) {
+        // The day string for forecast uses the following logic:
+        // For today: "Today, June 8"
+        // For tomorrow:  "Tomorrow"
+        // For the next 5 days: "Wednesday" (just the day name)
+        // For all days after that: "Mon Jun 8"
+        int day = getDayFromToday(dateInMillis);
+        if (displayLongToday && day == 0) {
+            if (mLongToday == null) {
+                mLongToday = String.format(context.getString(
+                        R.string.format_full_friendly_date,
+                        context.getString(R.string.today),
+                        getFormattedMonthDay(context, dateInMillis)));
+            }
+            return mLongToday;
+        } else if (day < DAYS_IN_A_WEEK) {
+            // If the input date is less than a week in the future, just return the day name.
+            return getDayName(context, dateInMillis);
+        } else if (day > MAX_CACHED_DAY) {
+            return mShortDateFormat.format(dateInMillis);
+        }
+
+        int index = day - MIN_CACHED_DAY;
+        if (mFriendlyDays[index] == null) {
+            mFriendlyDays[index] = mShortDateFormat.format(dateInMillis);
+        }
+        return mFriendlyDays[index];
+    }
+
+    /**
+     * Same as {@link Utility#getFullFriendlyDayString}.
+     */
+    public synchronized String getFullFriendlyDayString(Context context, long dateInMillis) {
+        int day = getDayFromToday(dateInMillis);
+        if (day < MIN_CACHED_DAY || day > MAX_CACHED_DAY) {
+            return formatFullFriendlyDay(context, dateInMillis);
+        }
+        int index = day - MIN_CACHED_DAY;
+        if (mFullFriendlyDays[index] == null) {
+            mFullFriendlyDays[index] = formatFullFriendlyDay(context, dateInMillis);
+        }
+        return mFullFriendlyDays[index];
+    }
+
+    private String formatFullFriendlyDay(Context context, long dateInMillis) {
+        return String.format(context.getString(
+                R.string.format_full_friendly_date,
+                getDayName(context, dateInMillis),
+                getFormattedMonthDay(context, dateInMillis)));
+    }
+
+    /**
+     * Same as {@link Utility#getDayName}.
+     */
+    public synchronized String getDayName(Context context, long dateInMillis) {
+        int day = getDayFromToday(dateInMillis);
+        if (day < MIN_CACHED_DAY || day > MAX_CACHED_DAY) {
+            return mDayNameFormat.format(dateInMillis);
+        }
+        int index = day - MIN_CACHED_DAY;
+        if (mDayNames[index] == null) {
+            if (day == 0) {
+                mDayNames[index] = context.getString(R.string.today);
+            } else if (day == 1) {
+                mDayNames[index] = context.getString(R.string.tomorrow);
+            } else {
+                // Otherwise, the format is just the day of the week (e.g "Wednesday").
+                mDayNames[index] = mDayNameFormat.format(dateInMillis);
+            }
+        }
+        return mDayNames[index];
+    }
+
+    /**
+     * Same as {@link Utility#getFormattedMonthDay}.
+     */
+    public synchronized String getFormattedMonthDay(Context context, long dateInMillis) {
+        int day = getDayFromToday(dateInMillis);
+        if (day < MIN_CACHED_DAY || day > MAX_CACHED_DAY) {
+            return mMonthDayFormat.format(dateInMillis);
+        }
+        int index = day - MIN_CACHED_DAY;
+        if (mMonthDays[index] == null) {
+            mMonthDays[index] = mMonthDayFormat.format(dateInMillis);
+        }
+        return mMonthDays[index];
+    }
+
+    // The caller holds the lock.
+    private int getDayFromToday(long dateInMillis) {
+        checkLocale();
+        long now = System.currentTimeMillis();
+        if (mTimeChanged || now < mTodayStartMillis || now >= mTomorrowStartMillis) {
+            Time time = new Time();
+            time.set(now);
+            mGmtoff = time.gmtoff;
+            mTodayJulianDay = Time.getJulianDay(now, mGmtoff);
+            mTodayStartMillis = time.setJulianDay(mTodayJulianDay);
+            mTomorrowStartMillis = time.setJulianDay(mTodayJulianDay + 1);
+            if (mTimeChanged) {
+                // The formats keep the zone they were built in.
+                TimeZone timeZone = TimeZone.getDefault();
+                mShortDateFormat.setTimeZone(timeZone);
+                mDayNameFormat.setTimeZone(timeZone);
+                mMonthDayFormat.setTimeZone(timeZone);
+            }
+            mTimeChanged = false;
+            clearDays();
+        }
+        return Time.getJulianDay(dateInMillis, mGmtoff) - mTodayJulianDay;
+    }
+
+    // The caller holds the lock.
+    private void checkLocale() {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mLocale = locale;
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            mDayNameFormat = new SimpleDateFormat("EEEE");
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+            clearTemperatures();
+            clearDays();
+        }
+    }
+
+    private void clearTemperatures() {
+        Arrays.fill(mTemperatures, null);
+        mNegativeZero = null;
+    }
+
+    private void clearDays() {
+        Arrays.fill(mFriendlyDays, null);
+        mLongToday = null;
+        Arrays.fill(mFullFriendlyDays, null);
+        Arrays.fill(mDayNames, null);
+        Arrays.fill(mMonthDays, null);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v7.util.DiffUtil;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link ForecastSnapshotLoader} for the forecast list that also turns each snapshot into
+ * {@link ForecastRow}s and diffs them against the rows it delivered last, all on the loader's
+ * background thread, so the main thread only has to hand the result to the adapter.
+ */
+class ForecastLoader extends ForecastSnapshotLoader {
+    // The rows of the last result delivered, which are what the adapter is showing.
+    private volatile List<ForecastRow> mDeliveredRows = Collections.emptyList();
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        SnapshotCursor cursor = (SnapshotCursor) super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        List<ForecastRow> baseRows = mDeliveredRows;
+        List<ForecastRow> rows = ForecastRow.fromSnapshot(getContext(), cursor.getSnapshot());
+        return new RowsCursor(cursor.getWrappedCursor(), cursor.getSnapshot(), rows, baseRows,
+                ForecastRow.diff(baseRows, rows));
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset() && cursor instanceof RowsCursor) {
+            mDeliveredRows = ((RowsCursor) cursor).getRows();
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mDeliveredRows = Collections.emptyList();
+    }
+
+    /**
+     * The cursor of a load, with its snapshot, its rows and how they differ from the rows before.
+     */
+    static final class RowsCursor extends SnapshotCursor {
+        private final List<ForecastRow> mRows;
+        private final List<ForecastRow> mBaseRows;
+        private final DiffUtil.DiffResult mDiff;
+
+        RowsCursor(Cursor cursor, ForecastSnapshot snapshot, List<ForecastRow> rows,
+                   List<ForecastRow> baseRows, DiffUtil.DiffResult diff) {
+            super(cursor, snapshot);
+            mRows = rows;
+            mBaseRows = baseRows;
+            mDiff = diff;
+        }
+
+        List<ForecastRow> getRows() {
+            return mRows;
+        }
+
+        /**
+         * @return the rows the diff starts from
+         */
+        List<ForecastRow> getBaseRows() {
+            return mBaseRows;
+        }
+
+        DiffUtil.DiffResult getDiff() {
+            return mDiff;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One day of the forecast list with everything {@link ForecastAdapter} shows for it already
+ * worked out, so binding a row only sets fields.  Rows never change; a new load builds a new
+ * list, and {@link #diff} tells the adapter which rows actually differ from the last one.
+ * Nothing in a row depends on its position, so a day that only moves up the list is not
+ * rebound; {@link #dispatchUpdates} takes care of the first row's layout.
+ */
+public final class ForecastRow {
+    final long mDate;
+    final String mDateText;
+    // "Today, June 8" for today, the same as mDateText for any other day.
+    final String mLongDateText;
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+    final int mIconResource;
+    final int mArtResource;
+    // null when the art comes from the app's resources
+    final String mArtUrl;
+    final String mTransitionName;
+
+    private ForecastRow(Context context, ForecastSnapshot forecast, int position) {
+        int weatherId = forecast.getWeatherId(position);
+        mDate = forecast.getDate(position);
+        mDateText = Utility.getFriendlyDayString(context, mDate, false);
+        mLongDateText = Utility.getFriendlyDayString(context, mDate, true);
+
+        mDescription = Utility.getStringForWeatherCondition(context, weatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+
+        mHighText = Utility.formatTemperature(context, forecast.getMaxTemp(position));
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = Utility.formatTemperature(context, forecast.getMinTemp(position));
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+
+        mIconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        mArtUrl = Utility.usingLocalGraphics(context)
+                ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view
+        mTransitionName = "iconView" + mDate;
+    }
+
+    /**
+     * Builds a row for every row of a cursor with the columns of
+     * {@link ForecastFragment#FORECAST_COLUMNS}.
+     */
+    public static List<ForecastRow> fromCursor(Context context, Cursor cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        return fromSnapshot(context, ForecastSnapshot.fromCursor(cursor));
+    }
+
+    /**
+     * Builds a row for every day of a forecast.
+     */
+    public static List<ForecastRow> fromSnapshot(Context context, ForecastSnapshot forecast) {
+        int count = forecast.getCount();
+        List<ForecastRow> rows = new ArrayList<ForecastRow>(count);
+        for (int position = 0; position < count; position++) {
+            rows.add(new ForecastRow(context, forecast, position));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Works out the fewest insertions, removals, moves and changes that turn one list of rows
+     * into the other.  Rows are the same item when they are the same day.
+     */
+    public static DiffUtil.DiffResult diff(final List<ForecastRow> oldRows,
+                                           final List<ForecastRow> newRows) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldRows.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newRows.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldRows.get(oldItemPosition).mDate == newRows.get(newItemPosition).mDate;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldRows.get(oldItemPosition).equals(newRows.get(newItemPosition));
+            }
+        }, false);
+    }
+
+    /**
+     * Dispatches a diff of the two lists, and rebinds the first row whenever a different day
+     * has become the first one: the adapter shows only the first row in the today layout, which
+     * the rows themselves don't know about.  A day that was first and only moved down is
+     * rebound too.
+     */
+    public static void dispatchUpdates(DiffUtil.DiffResult diff, List<ForecastRow> oldRows,
+                                       List<ForecastRow> newRows, ListUpdateCallback callback) {
+        diff.dispatchUpdatesTo(callback);
+        if (oldRows.isEmpty() || newRows.isEmpty()) {
+            return;
+        }
+        long oldFirstDate = oldRows.get(0).mDate;
+        long newFirstDate = newRows.get(0).mDate;
+        if (oldFirstDate == newFirstDate) {
+            return;
+        }
+        // A new day at the top was inserted, and so is bound anyway.
+        if (indexOf(oldRows, newFirstDate) != -1) {
+            callback.onChanged(0, 1, null);
+        }
+        int oldFirstPosition = indexOf(newRows, oldFirstDate);
+        if (oldFirstPosition > 0) {
+            callback.onChanged(oldFirstPosition, 1, null);
+        }
+    }
+
+    private static int indexOf(List<ForecastRow> rows, long date) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).mDate == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow row = (ForecastRow) o;
+        return mDate == row.mDate
+                && mIconResource == row.mIconResource
+                && mArtResource == row.mArtResource
+                && mDateText.equals(row.mDateText)
+                && mLongDateText.equals(row.mLongDateText)
+                && mDescription.equals(row.mDescription)
+                && mDescriptionA11y.equals(row.mDescriptionA11y)
+                && mHighText.equals(row.mHighText)
+                && mHighA11y.equals(row.mHighA11y)
+                && mLowText.equals(row.mLowText)
+                && mLowA11y.equals(row.mLowA11y)
+                && TextUtils.equals(mArtUrl, row.mArtUrl)
+                && mTransitionName.equals(row.mTransitionName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mDate ^ (mDate >>> 32));
+        result = 31 * result + mDescription.hashCode();
+        result = 31 * result + mHighText.hashCode();
+        result = 31 * result + mLowText.hashCode();
+        return result;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The days of a forecast query copied out of the cursor once, a column to an array, so the
+ * forecast list, the detail view and the widgets read a day by indexing arrays rather than
+ * moving a cursor around its window.  The few distinct descriptions a forecast has are kept
+ * once each.  A snapshot never changes, so any number of readers on any thread can share one,
+ * and it can be sent to another process as a Parcelable.
+ * <p>
+ * Columns are found by name, so any projection of the weather table will do.  A column the
+ * query didn't ask for reads as 0, or null for the description.
+ */
+public final class ForecastSnapshot implements Parcelable {
+    private static final ForecastSnapshot EMPTY = new ForecastSnapshot(0);
+
+    private final int mCount;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final double[] mMaxTemps;
+    private final double[] mMinTemps;
+    private final float[] mHumidities;
+    private final float[] mPressures;
+    private final float[] mWindSpeeds;
+    private final float[] mDegrees;
+    // indices into mDescriptionTable, -1 for no description
+    private final int[] mDescriptions;
+    private final String[] mDescriptionTable;
+
+    private ForecastSnapshot(int count) {
+        mCount = count;
+        mIds = new long[count];
+        mDates = new long[count];
+        mWeatherIds = new int[count];
+        mMaxTemps = new double[count];
+        mMinTemps = new double[count];
+        mHumidities = new float[count];
+        mPressures = new float[count];
+        mWindSpeeds = new float[count];
+        mDegrees = new float[count];
+        mDescriptions = new int[count];
+        mDescriptionTable = new String[0];
+    }
+
+    private ForecastSnapshot(Cursor cursor) {
+        mCount = cursor.getCount();
+        int idColumn = cursor.getColumnIndex(WeatherEntry._ID);
+        int dateColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DATE);
+        int weatherIdColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_WEATHER_ID);
+        int maxTempColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP);
+        int minTempColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_MIN_TEMP);
+        int humidityColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_HUMIDITY);
+        int pressureColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_PRESSURE);
+        int windSpeedColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_WIND_SPEED);
+        int degreesColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_DEGREES);
+        int descriptionColumn = cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC);
+
+        mIds = new long[mCount];
+        mDates = new long[mCount];
+        mWeatherIds = new int[mCount];
+        mMaxTemps = new double[mCount];
+        mMinTemps = new double[mCount];
+        mHumidities = new float[mCount];
+        mPressures = new float[mCount];
+        mWindSpeeds = new float[mCount];
+        mDegrees = new float[mCount];
+        mDescriptions = new int[mCount];
+
+        Map<String, Integer> descriptionIndices = new HashMap<String, Integer>();
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < mCount && cursor.moveToNext(); i++) {
+            if (idColumn != -1) mIds[i] = cursor.getLong(idColumn);
+            if (dateColumn != -1) mDates[i] = cursor.getLong(dateColumn);
+            if (weatherIdColumn != -1) mWeatherIds[i] = cursor.getInt(weatherIdColumn);
+            if (maxTempColumn != -1) mMaxTemps[i] = cursor.getDouble(maxTempColumn);
+            if (minTempColumn != -1) mMinTemps[i] = cursor.getDouble(minTempColumn);
+            if (humidityColumn != -1) mHumidities[i] = cursor.getFloat(humidityColumn);
+            if (pressureColumn != -1) mPressures[i] = cursor.getFloat(pressureColumn);
+            if (windSpeedColumn != -1) mWindSpeeds[i] = cursor.getFloat(windSpeedColumn);
+            if (degreesColumn != -1) mDegrees[i] = cursor.getFloat(degreesColumn);
+
+            String description = descriptionColumn == -1
+                    ? null : cursor.getString(descriptionColumn);
+            if (description == null) {
+                mDescriptions[i] = -1;
+            } else {
+                Integer index = descriptionIndices.get(description);
+                if (index == null) {
+                    index = descriptionIndices.size();
+                    descriptionIndices.put(description, index);
+                }
+                mDescriptions[i] = index;
+            }
+        }
+
+        mDescriptionTable = new String[descriptionIndices.size()];
+        for (Map.Entry<String, Integer> entry : descriptionIndices.entrySet()) {
+            mDescriptionTable[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    private ForecastSnapshot(Parcel in) {
+        mCount = in.readInt();
+        mIds = in.createLongArray();
+        mDates = in.createLongArray();
+        mWeatherIds = in.createIntArray();
+        mMaxTemps = in.createDoubleArray();
+        mMinTemps = in.createDoubleArray();
+        mHumidities = in.createFloatArray();
+        mPressures = in.createFloatArray();
+        mWindSpeeds = in.createFloatArray();
+        mDegrees = in.createFloatArray();
+        mDescriptions = in.createIntArray();
+        mDescriptionTable = in.createStringArray();
+    }
+
+    /**
+     * Copies every row of a cursor.  The cursor is left open, after its last row.
+     *
+     * @return the snapshot, empty for a null cursor
+     */
+    public static ForecastSnapshot fromCursor(Cursor cursor) {
+        if (cursor == null) {
+            return EMPTY;
+        }
+        return new ForecastSnapshot(cursor);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public long getDate(int position) {
+        return mDates[position];
+    }
+
+    public int getWeatherId(int position) {
+        return mWeatherIds[position];
+    }
+
+    public double getMaxTemp(int position) {
+        return mMaxTemps[position];
+    }
+
+    public double getMinTemp(int position) {
+        return mMinTemps[position];
+    }
+
+    public float getHumidity(int position) {
+        return mHumidities[position];
+    }
+
+    public float getPressure(int position) {
+        return mPressures[position];
+    }
+
+    public float getWindSpeed(int position) {
+        return mWindSpeeds[position];
+    }
+
+    public float getDegrees(int position) {
+        return mDegrees[position];
+    }
+
+    /**
+     * @return the short description the server sent, the same instance for every day with the
+     * same one
+     */
+    public String getDescription(int position) {
+        int index = mDescriptions[position];
+        return index == -1 ? null : mDescriptionTable[index];
+    }
+
+    /**
+     * @return how many different descriptions the days have between them
+     */
+    public int getDescriptionCount() {
+        return mDescriptionTable.length;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mCount);
+        dest.writeLongArray(mIds);
+        dest.writeLongArray(mDates);
+        dest.writeIntArray(mWeatherIds);
+        dest.writeDoubleArray(mMaxTemps);
+        dest.writeDoubleArray(mMinTemps);
+        dest.writeFloatArray(mHumidities);
+        dest.writeFloatArray(mPressures);
+        dest.writeFloatArray(mWindSpeeds);
+        dest.writeFloatArray(mDegrees);
+        dest.writeIntArray(mDescriptions);
+        dest.writeStringArray(mDescriptionTable);
+    }
+
+    public static final Parcelable.Creator<ForecastSnapshot> CREATOR =
+            new Parcelable.Creator<ForecastSnapshot>() {
+        @Override
+        public ForecastSnapshot createFromParcel(Parcel in) {
+            return new ForecastSnapshot(in);
+        }
+
+        @Override
+        public ForecastSnapshot[] newArray(int size) {
+            return new ForecastSnapshot[size];
+        }
+    };
+}
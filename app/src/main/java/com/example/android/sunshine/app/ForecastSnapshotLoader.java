@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A {@link CursorLoader} that copies each cursor into a {@link ForecastSnapshot} on the
+ * loader's background thread, so whoever gets the cursor reads the snapshot instead.
+ */
+class ForecastSnapshotLoader extends CursorLoader {
+
+    ForecastSnapshotLoader(Context context, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        return new SnapshotCursor(cursor, ForecastSnapshot.fromCursor(cursor));
+    }
+
+    /**
+     * @return the snapshot a loader made of the cursor, or a new one for any other cursor
+     */
+    static ForecastSnapshot getSnapshot(Cursor cursor) {
+        if (cursor instanceof SnapshotCursor) {
+            return ((SnapshotCursor) cursor).getSnapshot();
+        }
+        return ForecastSnapshot.fromCursor(cursor);
+    }
+
+    /**
+     * The cursor of a load, with the snapshot of it.
+     */
+    static class SnapshotCursor extends CursorWrapper {
+        private final ForecastSnapshot mSnapshot;
+
+        SnapshotCursor(Cursor cursor, ForecastSnapshot snapshot) {
+            super(cursor);
+            mSnapshot = snapshot;
+        }
+
+        ForecastSnapshot getSnapshot() {
+            return mSnapshot;
+        }
+    }
+}
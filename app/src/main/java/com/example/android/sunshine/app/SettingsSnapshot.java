@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The settings the forecast list, the widgets and the sync adapter read over and over, as they
+ * were at one moment.  A snapshot never changes; a new one with the next version replaces it
+ * whenever one of these preferences does, so any thread can read the current one without a
+ * lock, a preference lookup or a resource lookup for the key, and the values it reads together
+ * always belong together.
+ * <p>
+ * SharedPreferences only tells its listeners about a change on the main thread.  Code that
+ * writes one of these settings from another thread and reads it straight back should call
+ * {@link #publish} after the commit.
+ */
+public final class SettingsSnapshot {
+    private static volatile SettingsSnapshot sCurrent;
+    private static Publisher sPublisher;
+
+    private final long mVersion;
+    private final String mLocation;
+    private final boolean mLocationLatLonAvailable;
+    private final float mLocationLatitude;
+    private final float mLocationLongitude;
+    private final boolean mMetric;
+    private final String mArtPack;
+    private final boolean mLocalGraphics;
+    private final boolean mNotificationsEnabled;
+    private final int mLocationStatus;
+
+    private SettingsSnapshot(long version, Publisher publisher) {
+        SharedPreferences prefs = publisher.mPrefs;
+        mVersion = version;
+        mLocation = prefs.getString(publisher.mLocationKey, publisher.mDefaultLocation);
+        mLocationLatLonAvailable = prefs.contains(publisher.mLatitudeKey)
+                && prefs.contains(publisher.mLongitudeKey);
+        mLocationLatitude = prefs.getFloat(publisher.mLatitudeKey, Utility.DEFAULT_LATLONG);
+        mLocationLongitude = prefs.getFloat(publisher.mLongitudeKey, Utility.DEFAULT_LATLONG);
+        mMetric = prefs.getString(publisher.mUnitsKey, publisher.mMetricUnits)
+                .equals(publisher.mMetricUnits);
+        mArtPack = prefs.getString(publisher.mArtPackKey, publisher.mLocalArtPack);
+        mLocalGraphics = mArtPack.equals(publisher.mLocalArtPack);
+        mNotificationsEnabled = prefs.getBoolean(publisher.mNotificationsKey,
+                publisher.mDefaultNotifications);
+        mLocationStatus = prefs.getInt(publisher.mLocationStatusKey,
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    /**
+     * @return the settings as they are now
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        if (snapshot == null) {
+            snapshot = getPublisher(context).publish();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the settings again and makes them the current snapshot.
+     *
+     * @return the new snapshot
+     */
+    public static SettingsSnapshot publish(Context context) {
+        return getPublisher(context).publish();
+    }
+
+    private static synchronized Publisher getPublisher(Context context) {
+        if (sPublisher == null) {
+            sPublisher = new Publisher(context.getApplicationContext());
+        }
+        return sPublisher;
+    }
+
+    /**
+     * @return a number that grows with every snapshot published
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isLocationLatLonAvailable() {
+        return mLocationLatLonAvailable;
+    }
+
+    public float getLocationLatitude() {
+        return mLocationLatitude;
+    }
+
+    public float getLocationLongitude() {
+        return mLocationLongitude;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the URL format of the art pack the user picked
+     */
+    public String getArtPack() {
+        return mArtPack;
+    }
+
+    public boolean isUsingLocalGraphics() {
+        return mLocalGraphics;
+    }
+
+    public boolean isNotificationsEnabled() {
+        return mNotificationsEnabled;
+    }
+
+    @SuppressWarnings("ResourceType")
+    public @SunshineSyncAdapter.LocationStatus int getLocationStatus() {
+        return mLocationStatus;
+    }
+
+    /*
+        Keeps the preferences and the keys, and listens for changes.  SharedPreferences only
+        holds on to its listeners weakly, so this has to stay reachable for as long as the
+        process lives.
+     */
+    private static final class Publisher
+            implements SharedPreferences.OnSharedPreferenceChangeListener {
+        final SharedPreferences mPrefs;
+        final String mLocationKey;
+        final String mDefaultLocation;
+        final String mLatitudeKey;
+        final String mLongitudeKey;
+        final String mUnitsKey;
+        final String mMetricUnits;
+        final String mArtPackKey;
+        final String mLocalArtPack;
+        final String mNotificationsKey;
+        final boolean mDefaultNotifications;
+        final String mLocationStatusKey;
+        private final Set<String> mKeys;
+        private long mVersion;
+
+        Publisher(Context context) {
+            mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+            mLocationKey = context.getString(R.string.pref_location_key);
+            mDefaultLocation = context.getString(R.string.pref_location_default);
+            mLatitudeKey = context.getString(R.string.pref_location_latitude);
+            mLongitudeKey = context.getString(R.string.pref_location_longitude);
+            mUnitsKey = context.getString(R.string.pref_units_key);
+            mMetricUnits = context.getString(R.string.pref_units_metric);
+            mArtPackKey = context.getString(R.string.pref_art_pack_key);
+            mLocalArtPack = context.getString(R.string.pref_art_pack_sunshine);
+            mNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+            mDefaultNotifications = Boolean.parseBoolean(
+                    context.getString(R.string.pref_enable_notifications_default));
+            mLocationStatusKey = context.getString(R.string.pref_location_status_key);
+            mKeys = new HashSet<String>(Arrays.asList(mLocationKey, mLatitudeKey, mLongitudeKey,
+                    mUnitsKey, mArtPackKey, mNotificationsKey, mLocationStatusKey));
+            mPrefs.registerOnSharedPreferenceChangeListener(this);
+        }
+
+        synchronized SettingsSnapshot publish() {
+            SettingsSnapshot snapshot = new SettingsSnapshot(++mVersion, this);
+            sCurrent = snapshot;
+            return snapshot;
+        }
+
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            // The rest, like the status of every single location, change every sync.
+            if (key == null || mKeys.contains(key)) {
+                publish();
+            }
+        }
+    }
+}
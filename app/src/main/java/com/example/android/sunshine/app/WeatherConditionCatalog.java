@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Everything Sunshine shows for an OpenWeatherMap weather condition, worked out once per weather
+ * ID up front rather than by a chain of range checks per lookup.  Lookups are an array index, so
+ * they cost the same for every ID and allocate nothing, which matters because the forecast list
+ * and the widgets do several of them for every row they bind.
+ */
+public class WeatherConditionCatalog {
+    // Weather IDs are three digits, see
+    // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+    static final int MAX_WEATHER_ID = 1000;
+
+    // The conditions Sunshine has artwork for.  Dust only differs from a storm in its image.
+    private static final int CONDITION_NONE = -1;
+    private static final int CONDITION_STORM = 0;
+    private static final int CONDITION_LIGHT_RAIN = 1;
+    private static final int CONDITION_RAIN = 2;
+    private static final int CONDITION_SNOW = 3;
+    private static final int CONDITION_FOG = 4;
+    private static final int CONDITION_DUST = 5;
+    private static final int CONDITION_CLEAR = 6;
+    private static final int CONDITION_LIGHT_CLOUDS = 7;
+    private static final int CONDITION_CLOUDS = 8;
+
+    // these are indexed by the conditions above
+    private static final int[] ICON_IDS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_storm,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ART_IDS = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_storm,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // What goes into an art pack's URL format.
+    private static final String[] ART_NAMES = {
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "storm",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // {first weather ID, last weather ID, condition}
+    private static final int[][] CONDITION_RANGES = {
+            {200, 232, CONDITION_STORM},
+            {300, 321, CONDITION_LIGHT_RAIN},
+            {500, 504, CONDITION_RAIN},
+            {511, 511, CONDITION_SNOW},
+            {520, 531, CONDITION_RAIN},
+            {600, 622, CONDITION_SNOW},
+            {701, 761, CONDITION_FOG},
+            {781, 781, CONDITION_DUST},
+            {800, 800, CONDITION_CLEAR},
+            {801, 801, CONDITION_LIGHT_CLOUDS},
+            {802, 804, CONDITION_CLOUDS}
+    };
+
+    // {first weather ID, last weather ID, string resource}
+    private static final int[][] STRING_RANGES = {
+            {200, 232, R.string.condition_2xx},
+            {300, 321, R.string.condition_3xx},
+            {500, 500, R.string.condition_500},
+            {501, 501, R.string.condition_501},
+            {502, 502, R.string.condition_502},
+            {503, 503, R.string.condition_503},
+            {504, 504, R.string.condition_504},
+            {511, 511, R.string.condition_511},
+            {520, 520, R.string.condition_520},
+            {531, 531, R.string.condition_531},
+            {600, 600, R.string.condition_600},
+            {601, 601, R.string.condition_601},
+            {602, 602, R.string.condition_602},
+            {611, 611, R.string.condition_611},
+            {612, 612, R.string.condition_612},
+            {615, 615, R.string.condition_615},
+            {616, 616, R.string.condition_616},
+            {620, 620, R.string.condition_620},
+            {621, 621, R.string.condition_621},
+            {622, 622, R.string.condition_622},
+            {701, 701, R.string.condition_701},
+            {711, 711, R.string.condition_711},
+            {721, 721, R.string.condition_721},
+            {731, 731, R.string.condition_731},
+            {741, 741, R.string.condition_741},
+            {751, 751, R.string.condition_751},
+            {761, 761, R.string.condition_761},
+            {762, 762, R.string.condition_762},
+            {771, 771, R.string.condition_771},
+            {781, 781, R.string.condition_781},
+            {800, 800, R.string.condition_800},
+            {801, 801, R.string.condition_801},
+            {802, 802, R.string.condition_802},
+            {803, 803, R.string.condition_803},
+            {804, 804, R.string.condition_804},
+            {900, 900, R.string.condition_900},
+            {901, 901, R.string.condition_901},
+            {902, 902, R.string.condition_902},
+            {903, 903, R.string.condition_903},
+            {904, 904, R.string.condition_904},
+            {905, 905, R.string.condition_905},
+            {906, 906, R.string.condition_906},
+            {951, 951, R.string.condition_951},
+            {952, 952, R.string.condition_952},
+            {953, 953, R.string.condition_953},
+            {954, 954, R.string.condition_954},
+            {955, 955, R.string.condition_955},
+            {956, 956, R.string.condition_956},
+            {957, 957, R.string.condition_957},
+            {958, 958, R.string.condition_958},
+            {959, 959, R.string.condition_959},
+            {960, 960, R.string.condition_960},
+            {961, 961, R.string.condition_961},
+            {962, 962, R.string.condition_962}
+    };
+
+    // indexed by weather ID
+    private static final byte[] sConditions = new byte[MAX_WEATHER_ID];
+    private static final int[] sStringIds = new int[MAX_WEATHER_ID];
+
+    static {
+        Arrays.fill(sConditions, (byte) CONDITION_NONE);
+        for (int[] range : CONDITION_RANGES) {
+            for (int weatherId = range[0]; weatherId <= range[1]; weatherId++) {
+                sConditions[weatherId] = (byte) range[2];
+            }
+        }
+        for (int[] range : STRING_RANGES) {
+            for (int weatherId = range[0]; weatherId <= range[1]; weatherId++) {
+                sStringIds[weatherId] = range[2];
+            }
+        }
+    }
+
+    // The art pack URLs of the last art pack asked for, swapped whole when the setting changes.
+    private static volatile ArtPack sArtPack;
+
+    private static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= MAX_WEATHER_ID) {
+            return CONDITION_NONE;
+        }
+        return sConditions[weatherId];
+    }
+
+    /**
+     * @return resource id for the icon of the weather condition. -1 if no relation is found.
+     */
+    public static int getIconResource(int weatherId) {
+        int condition = getCondition(weatherId);
+        return condition == CONDITION_NONE ? -1 : ICON_IDS[condition];
+    }
+
+    /**
+     * @return resource id for the artwork of the weather condition. -1 if no relation is found.
+     */
+    public static int getArtResource(int weatherId) {
+        int condition = getCondition(weatherId);
+        return condition == CONDITION_NONE ? -1 : ART_IDS[condition];
+    }
+
+    /**
+     * @return URL of a photo of the weather condition. null if no relation is found.
+     */
+    public static String getImageUrl(int weatherId) {
+        int condition = getCondition(weatherId);
+        return condition == CONDITION_NONE ? null : IMAGE_URLS[condition];
+    }
+
+    /**
+     * @return string resource id for the weather condition. 0 if no relation is found.
+     */
+    public static int getStringResource(int weatherId) {
+        if (weatherId < 0 || weatherId >= MAX_WEATHER_ID) {
+            return 0;
+        }
+        return sStringIds[weatherId];
+    }
+
+    /**
+     * @return URL of the artwork of the weather condition in the art pack the user picked. null
+     * if no relation is found.
+     */
+    public static String getArtUrl(Context context, int weatherId) {
+        int condition = getCondition(weatherId);
+        return condition == CONDITION_NONE ? null : getArtPack(context).mUrls[condition];
+    }
+
+    /**
+     * @return true if the art pack the user picked is the one Sunshine ships as resources.
+     */
+    public static boolean usingLocalGraphics(Context context) {
+        return SettingsSnapshot.get(context).isUsingLocalGraphics();
+    }
+
+    private static ArtPack getArtPack(Context context) {
+        String format = SettingsSnapshot.get(context).getArtPack();
+        ArtPack artPack = sArtPack;
+        // The same setting comes back as the same String, so this is usually a reference check.
+        if (artPack == null || !artPack.mFormat.equals(format)) {
+            artPack = new ArtPack(format);
+            sArtPack = artPack;
+        }
+        return artPack;
+    }
+
+    private static final class ArtPack {
+        final String mFormat;
+        // indexed by condition
+        final String[] mUrls = new String[ART_NAMES.length];
+
+        ArtPack(String format) {
+            mFormat = format;
+            for (int i = 0; i < ART_NAMES.length; i++) {
+                mUrls[i] = String.format(Locale.US, format, ART_NAMES[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The row ID and coordinates of every location the sync adapter has stored or seen, kept in
+ * memory so a sync doesn't have to ask the provider for an ID that almost never changes.  A
+ * location missing from here, or whose coordinates OpenWeatherMap has revised, is written with
+ * the provider's location upsert in the same batch as its weather.
+ *
+ * The provider is the only writer of the location table and clears the registry whenever it
+ * deletes or updates locations, so an ID handed out here always names a stored row.  That is
+ * why the registry lives with the provider; the sync adapter only reads and fills it.
+ */
+public class LocationRegistry {
+
+    public static class Entry {
+        public final long id;
+        public final double latitude;
+        public final double longitude;
+
+        Entry(long id, double latitude, double longitude) {
+            this.id = id;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /** @return true if the stored coordinates are exactly the given ones */
+        public boolean hasCoordinates(double latitude, double longitude) {
+            return this.latitude == latitude && this.longitude == longitude;
+        }
+    }
+
+    // What the provider's location upsert did.
+    public static final int UPSERT_INSERTED = 0;
+    public static final int UPSERT_UPDATED = 1;
+    public static final int UPSERT_UNCHANGED = 2;
+
+    private static final Map<String, Entry> sEntries = new HashMap<String, Entry>();
+
+    private static int sHitCount;
+    private static int sMissCount;
+    private static int sInsertedCount;
+    private static int sUpdatedCount;
+    private static int sUnchangedCount;
+
+    /**
+     * Every hit is a provider query the sync doesn't make.
+     * @return the registered location, or null if the provider has to be asked
+     */
+    public static synchronized Entry get(String locationSetting) {
+        Entry entry = sEntries.get(locationSetting);
+        if (entry == null) {
+            sMissCount++;
+        } else {
+            sHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Registers a location as it is now stored.
+     */
+    public static synchronized void put(String locationSetting, long id, double latitude,
+                                        double longitude) {
+        sEntries.put(locationSetting, new Entry(id, latitude, longitude));
+    }
+
+    /**
+     * Forgets every location, after a write the registry can't follow.
+     */
+    public static synchronized void invalidate() {
+        sEntries.clear();
+    }
+
+    /**
+     * @param outcome one of the UPSERT_ constants
+     */
+    public static synchronized void recordUpsert(int outcome) {
+        switch (outcome) {
+            case UPSERT_INSERTED:
+                sInsertedCount++;
+                break;
+            case UPSERT_UPDATED:
+                sUpdatedCount++;
+                break;
+            default:
+                sUnchangedCount++;
+        }
+    }
+
+    public static synchronized int size() {
+        return sEntries.size();
+    }
+
+    public static synchronized int getHitCount() {
+        return sHitCount;
+    }
+
+    public static synchronized int getMissCount() {
+        return sMissCount;
+    }
+
+    public static synchronized int getInsertedCount() {
+        return sInsertedCount;
+    }
+
+    /** @return how many upserts stored revised coordinates for an existing location */
+    public static synchronized int getUpdatedCount() {
+        return sUpdatedCount;
+    }
+
+    public static synchronized int getUnchangedCount() {
+        return sUnchangedCount;
+    }
+}
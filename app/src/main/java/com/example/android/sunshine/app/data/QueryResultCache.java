@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * A small LRU cache of materialized weather/[location] query results for
+ * {@link WeatherProvider}.  The same few queries, above all today's forecast for the preferred
+ * location, come from the notification, the watch, the widgets, Muzei and the loaders, often all
+ * within the same second.
+ *
+ * Every entry is tagged with the location setting it was read for, so a write to one location
+ * drops only that location's entries.  A result read while an invalidation happened is not
+ * stored, so a slow reader can't put back what a writer has just dropped.
+ */
+class QueryResultCache {
+    static final int DEFAULT_MAX_ENTRIES = 32;
+
+    // Bigger results go straight through; the forecast list is 14 rows.
+    static final int MAX_ROWS = 64;
+
+    private final LruCache<Key, Result> mCache;
+
+    // Bumped by every invalidation; guarded by this.
+    private long mGeneration;
+    private int mInvalidationCount;
+    // LruCache counts the entries evictAll() drops as evictions too, so the cache keeps its
+    // own count.  Anything that can evict runs holding this.
+    private boolean mInvalidating;
+    private int mEvictionCount;
+
+    QueryResultCache(int maxEntries) {
+        mCache = new LruCache<Key, Result>(maxEntries) {
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Result oldValue,
+                                        Result newValue) {
+                if (evicted && !mInvalidating) {
+                    mEvictionCount++;
+                }
+            }
+        };
+    }
+
+    static final class Key {
+        final String mLocationSetting;
+        private final String mKey;
+
+        private Key(String locationSetting, String key) {
+            mLocationSetting = locationSetting;
+            mKey = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && mKey.equals(((Key) o).mKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return mKey.hashCode();
+        }
+    }
+
+    static Key key(int match, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder, String locationSetting) {
+        // \u0000 can't turn up in any of the parts, so no two queries share a key.
+        String key = match + "\u0000" + uri + "\u0000" + Arrays.toString(projection) + "\u0000"
+                + selection + "\u0000" + Arrays.toString(selectionArgs) + "\u0000" + sortOrder;
+        return new Key(locationSetting, key);
+    }
+
+    private static final class Result {
+        final String[] mColumns;
+        // row after row
+        final Object[] mValues;
+        final int mRowCount;
+
+        Result(Cursor cursor) {
+            mColumns = cursor.getColumnNames();
+            mRowCount = cursor.getCount();
+            mValues = new Object[mRowCount * mColumns.length];
+            int i = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < mColumns.length; column++) {
+                    mValues[i++] = getValue(cursor, column);
+                }
+            }
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRowCount);
+            Object[] row = new Object[mColumns.length];
+            for (int i = 0; i < mRowCount; i++) {
+                System.arraycopy(mValues, i * row.length, row, 0, row.length);
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        private static Object getValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_STRING:
+                    return cursor.getString(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null on a miss
+     */
+    Cursor get(Key key) {
+        Result result = mCache.get(key);
+        return result == null ? null : result.toCursor();
+    }
+
+    /**
+     * Call before running a query that is to be cached, and hand the value to {@link #put}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Stores a query's result, unless it is too big or something was invalidated since
+     * {@link #getGeneration} was called.  Either way the caller gets a cursor it can return.
+     *
+     * @return a cursor over the stored copy, with the given cursor closed, or the given cursor
+     */
+    Cursor put(Key key, Cursor cursor, long generation) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        Result result = new Result(cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mCache.put(key, result);
+            }
+        }
+        return result.toCursor();
+    }
+
+    synchronized void invalidateLocation(String locationSetting) {
+        mGeneration++;
+        mInvalidationCount++;
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.mLocationSetting.equals(locationSetting)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidationCount++;
+        mInvalidating = true;
+        try {
+            mCache.evictAll();
+        } finally {
+            mInvalidating = false;
+        }
+    }
+
+    int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /** @return how many entries were pushed out by newer ones, not counting invalidations */
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+
+    int size() {
+        return mCache.size();
+    }
+
+    int maxSize() {
+        return mCache.maxSize();
+    }
+}
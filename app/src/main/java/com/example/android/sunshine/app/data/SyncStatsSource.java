@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.MatrixCursor;
+
+/**
+ * Fills the sync_stats rows that describe the sync adapter rather than the provider: the
+ * timings of recent syncs and the fetch circuit breaker.  The provider builds each cursor with
+ * the {@link WeatherContract.SyncStatsEntry} columns and asks the source for the rows, so the
+ * data layer needn't know anything about the sync package.  The app registers one with
+ * {@link WeatherProvider#setSyncStatsSource}; until it does, those URIs have no rows.
+ */
+public interface SyncStatsSource {
+
+    /** Adds a row per stage, with percentiles over the recent syncs. */
+    void addSummaryRows(MatrixCursor cursor);
+
+    /** Adds a row per stage of every recent sync. */
+    void addRecentRows(MatrixCursor cursor);
+
+    /** Adds the one row of the fetch circuit breaker. */
+    void addBreakerRow(MatrixCursor cursor);
+}
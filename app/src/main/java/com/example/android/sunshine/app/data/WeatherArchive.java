@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Moves past weather out of the weather table, which every forecast query reads, into the
+ * archive for {@link WeatherProvider}.  Each day keeps a row of its own for
+ * {@link #DAILY_RETENTION_DAYS} days; after that whole weeks, Monday to Sunday, are rolled up
+ * into a row each, so years of history stay a few hundred rows per location.
+ */
+class WeatherArchive {
+    static final int DAILY_RETENTION_DAYS = 90;
+    static final int WEEK_DAYS = 7;
+
+    // The columns of the weather table that the archive keeps, in the order below.
+    private static final String sWeatherColumns =
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES;
+
+    private static final String sArchiveColumns =
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    ArchiveEntry.COLUMN_END_DATE + ", " +
+                    ArchiveEntry.COLUMN_DAY_COUNT + ", " +
+                    sWeatherColumns;
+
+    // Copies weather rows as days; the selection is appended.
+    private static final String sArchiveWeatherSql =
+            "INSERT OR REPLACE INTO " + ArchiveEntry.TABLE_NAME + " (" + sArchiveColumns + ") " +
+                    "SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_DATE + ", 1, " +
+                    sWeatherColumns +
+                    " FROM " + WeatherEntry.TABLE_NAME + " WHERE ";
+
+    private static final String sInsertWeekSql =
+            "INSERT OR REPLACE INTO " + ArchiveEntry.TABLE_NAME + " (" + sArchiveColumns + ") " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // A day is the only kind of row that ends where it starts.
+    private static final String sDaySelection =
+            ArchiveEntry.COLUMN_END_DATE + " = " + WeatherEntry.COLUMN_DATE;
+
+    //end_date = date AND date < ?
+    private static final String sDaysBeforeSelection =
+            sDaySelection + " AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    //location_id = ? AND date = ? AND end_date != date
+    private static final String sWeekSelection =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    ArchiveEntry.COLUMN_END_DATE + " != " + WeatherEntry.COLUMN_DATE;
+
+    private static final String[] ROLL_UP_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            ArchiveEntry.COLUMN_DAY_COUNT,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOC_KEY = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_DAY_COUNT = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_WEATHER_ID = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+    private static final int INDEX_MAX_TEMP = 6;
+    private static final int INDEX_HUMIDITY = 7;
+    private static final int INDEX_PRESSURE = 8;
+    private static final int INDEX_WIND_SPEED = 9;
+    private static final int INDEX_DEGREES = 10;
+
+    /**
+     * Moves the weather rows that match the selection into the archive as days, then rolls up
+     * the days that are old enough into weeks.  The caller is responsible for the transaction.
+     *
+     * @param now the time that counts as today for the roll-up
+     * @return the number of rows moved out of the weather table
+     */
+    static int archive(SQLiteDatabase db, String selection, String[] selectionArgs, long now) {
+        if (selectionArgs == null) {
+            db.execSQL(sArchiveWeatherSql + selection);
+        } else {
+            db.execSQL(sArchiveWeatherSql + selection, selectionArgs);
+        }
+        int moved = db.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+        rollUp(db, now);
+        return moved;
+    }
+
+    /**
+     * Replaces the days of every week that ended more than {@link #DAILY_RETENTION_DAYS} days
+     * before now with a row for the week, merged with the row the week already has, if any.
+     * The caller is responsible for the transaction.
+     *
+     * @return the number of weeks written
+     */
+    static int rollUp(SQLiteDatabase db, long now) {
+        Time time = new Time();
+        int cutoffDay = getWeekStart(getJulianDay(now, time) - DAILY_RETENTION_DAYS);
+        String[] cutoffArgs = new String[]{Long.toString(time.setJulianDay(cutoffDay))};
+
+        // Read everything first: the writes below would move the rows under the cursor.
+        Map<String, Week> weeks = new LinkedHashMap<String, Week>();
+        Cursor days = db.query(ArchiveEntry.TABLE_NAME, ROLL_UP_COLUMNS, sDaysBeforeSelection,
+                cutoffArgs, null, null,
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE);
+        try {
+            while (days.moveToNext()) {
+                long locationId = days.getLong(INDEX_LOC_KEY);
+                int weekStart = getWeekStart(getJulianDay(days.getLong(INDEX_DATE), time));
+                String key = locationId + ":" + weekStart;
+                Week week = weeks.get(key);
+                if (week == null) {
+                    week = new Week(locationId, weekStart);
+                    weeks.put(key, week);
+                }
+                week.add(days);
+            }
+        } finally {
+            days.close();
+        }
+        if (weeks.isEmpty()) {
+            return 0;
+        }
+
+        SQLiteStatement insert = db.compileStatement(sInsertWeekSql);
+        try {
+            for (Week week : weeks.values()) {
+                long startDate = time.setJulianDay(week.mJulianDay);
+                long endDate = time.setJulianDay(week.mJulianDay + WEEK_DAYS - 1);
+                // Only when old days turn up after their week was rolled up, e.g. from a
+                // device that hadn't synced for months.
+                Cursor existing = db.query(ArchiveEntry.TABLE_NAME, ROLL_UP_COLUMNS,
+                        sWeekSelection,
+                        new String[]{Long.toString(week.mLocationId), Long.toString(startDate)},
+                        null, null, null);
+                try {
+                    if (existing.moveToFirst()) {
+                        week.add(existing);
+                    }
+                } finally {
+                    existing.close();
+                }
+                week.bind(insert, startDate, endDate);
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+        db.delete(ArchiveEntry.TABLE_NAME, sDaysBeforeSelection, cutoffArgs);
+        return weeks.size();
+    }
+
+    private static int getJulianDay(long date, Time time) {
+        time.set(date);
+        return Time.getJulianDay(date, time.gmtoff);
+    }
+
+    // Julian day numbers that are multiples of 7 are Mondays.
+    static int getWeekStart(int julianDay) {
+        return julianDay - julianDay % WEEK_DAYS;
+    }
+
+    /*
+        The days of one week of one location so far, each archive row counting for as many
+        days as went into it.
+     */
+    private static final class Week {
+        final long mLocationId;
+        final int mJulianDay;
+
+        private int mDayCount;
+        private double mMinTemp = Double.MAX_VALUE;
+        private double mMaxTemp = -Double.MAX_VALUE;
+        private double mHumiditySum;
+        private double mPressureSum;
+        private double mWindSpeedSum;
+        // Wind directions are averaged as unit vectors, so 350 and 10 make 0, not 180.
+        private double mNorthSum;
+        private double mEastSum;
+        // Days per weather ID, in the order the IDs first came up, and each one's description.
+        private final Map<Integer, Integer> mWeatherDays = new LinkedHashMap<Integer, Integer>();
+        private final Map<Integer, String> mDescriptions = new LinkedHashMap<Integer, String>();
+
+        Week(long locationId, int julianDay) {
+            mLocationId = locationId;
+            mJulianDay = julianDay;
+        }
+
+        void add(Cursor row) {
+            int days = row.getInt(INDEX_DAY_COUNT);
+            mDayCount += days;
+            mMinTemp = Math.min(mMinTemp, row.getDouble(INDEX_MIN_TEMP));
+            mMaxTemp = Math.max(mMaxTemp, row.getDouble(INDEX_MAX_TEMP));
+            mHumiditySum += days * row.getDouble(INDEX_HUMIDITY);
+            mPressureSum += days * row.getDouble(INDEX_PRESSURE);
+            mWindSpeedSum += days * row.getDouble(INDEX_WIND_SPEED);
+            double radians = Math.toRadians(row.getDouble(INDEX_DEGREES));
+            mNorthSum += days * Math.cos(radians);
+            mEastSum += days * Math.sin(radians);
+
+            int weatherId = row.getInt(INDEX_WEATHER_ID);
+            Integer weatherDays = mWeatherDays.get(weatherId);
+            mWeatherDays.put(weatherId, weatherDays == null ? days : weatherDays + days);
+            if (!mDescriptions.containsKey(weatherId)) {
+                mDescriptions.put(weatherId, row.getString(INDEX_SHORT_DESC));
+            }
+        }
+
+        // The most frequent weather, the earliest of those on a tie.
+        private int getWeatherId() {
+            int weatherId = 0;
+            int mostDays = 0;
+            for (Map.Entry<Integer, Integer> entry : mWeatherDays.entrySet()) {
+                if (entry.getValue() > mostDays) {
+                    weatherId = entry.getKey();
+                    mostDays = entry.getValue();
+                }
+            }
+            return weatherId;
+        }
+
+        private double getDegrees() {
+            double degrees = Math.toDegrees(Math.atan2(mEastSum, mNorthSum));
+            return degrees < 0 ? degrees + 360 : degrees;
+        }
+
+        void bind(SQLiteStatement statement, long startDate, long endDate) {
+            int weatherId = getWeatherId();
+            statement.bindLong(1, mLocationId);
+            statement.bindLong(2, startDate);
+            statement.bindLong(3, endDate);
+            statement.bindLong(4, mDayCount);
+            statement.bindString(5, mDescriptions.get(weatherId));
+            statement.bindLong(6, weatherId);
+            statement.bindDouble(7, mMinTemp);
+            statement.bindDouble(8, mMaxTemp);
+            statement.bindDouble(9, mHumiditySum / mDayCount);
+            statement.bindDouble(10, mPressureSum / mDayCount);
+            statement.bindDouble(11, mWindSpeedSum / mDayCount);
+            statement.bindDouble(12, getDegrees());
+        }
+    }
+}
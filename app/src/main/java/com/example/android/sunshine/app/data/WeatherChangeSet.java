@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a weather upsert actually did: how many rows were new, changed or left alone, and which
+ * (location, date) pairs were touched.  The provider uses it to notify only the URIs whose data
+ * really changed.
+ */
+public class WeatherChangeSet {
+    private int mInserted;
+    private int mUpdated;
+    private int mUnchanged;
+
+    // location row ID -> normalized dates whose row was inserted or updated
+    private final Map<Long, Set<Long>> mChangedDates = new HashMap<Long, Set<Long>>();
+
+    void addInserted(long locationId, long date) {
+        mInserted++;
+        addChangedDate(locationId, date);
+    }
+
+    void addUpdated(long locationId, long date) {
+        mUpdated++;
+        addChangedDate(locationId, date);
+    }
+
+    void addUnchanged() {
+        mUnchanged++;
+    }
+
+    private void addChangedDate(long locationId, long date) {
+        Set<Long> dates = mChangedDates.get(locationId);
+        if (dates == null) {
+            dates = new TreeSet<Long>();
+            mChangedDates.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    public int getInsertedCount() {
+        return mInserted;
+    }
+
+    public int getUpdatedCount() {
+        return mUpdated;
+    }
+
+    public int getUnchangedCount() {
+        return mUnchanged;
+    }
+
+    /** @return the number of rows that were inserted or updated */
+    public int getChangedCount() {
+        return mInserted + mUpdated;
+    }
+
+    public boolean isEmpty() {
+        return mChangedDates.isEmpty();
+    }
+
+    /** @return the location row IDs with at least one changed row */
+    public Set<Long> getChangedLocationIds() {
+        return Collections.unmodifiableSet(mChangedDates.keySet());
+    }
+
+    /** @return the changed dates of one location, in ascending order */
+    public Set<Long> getChangedDates(long locationId) {
+        Set<Long> dates = mChangedDates.get(locationId);
+        if (dates == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(dates);
+    }
+
+    @Override
+    public String toString() {
+        return mInserted + " inserted, " + mUpdated + " updated, " + mUnchanged + " unchanged";
+    }
+}
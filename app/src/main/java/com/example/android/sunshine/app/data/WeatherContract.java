@@ -43,12 +43,19 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_CURRENT = "current";
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_SYNC_STATS = "sync_stats";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    // Same as above, reusing a Time for callers that normalize many dates in a row.
+    static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -126,6 +133,19 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Paging: a page is at most QUERY_LIMIT rows that come after the given key, in key
+        // order, which is the date for a location and the location ID, then the date, for the
+        // whole table.  The next page comes after the last row of this one; 0 starts at the top.
+        public static final String QUERY_AFTER_LOCATION_ID = "after_location_id";
+        public static final String QUERY_AFTER_DATE = "after_date";
+        public static final String QUERY_LIMIT = "limit";
+
+        // What a weather insert inside applyBatch() answers for a row that was already stored
+        // as it is.  A changed row answers CONTENT_URI.  It can't answer null, which
+        // ContentProviderOperation takes as a failed insert and aborts the whole batch for.
+        public static final Uri UNCHANGED_URI =
+                CONTENT_URI.buildUpon().appendQueryParameter("unchanged", "true").build();
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +169,39 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherPage(long afterLocationId, long afterDate, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_AFTER_LOCATION_ID, Long.toString(afterLocationId))
+                    .appendQueryParameter(QUERY_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(QUERY_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static Uri buildWeatherLocationPage(String locationSetting, long afterDate,
+                                                   int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(QUERY_AFTER_DATE, Long.toString(afterDate))
+                    .appendQueryParameter(QUERY_LIMIT, Integer.toString(limit)).build();
+        }
+
+        // The weather from startDate to endDate, both included, whether still in the weather
+        // table or already moved to the archive, where older weeks are a row each.  Rows also
+        // have ArchiveEntry's end date and day count.
+        public static Uri buildWeatherLocationWithRange(
+                String locationSetting, long startDate, long endDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(startDate)))
+                    .appendPath(Long.toString(normalizeDate(endDate))).build();
+        }
+
+        // Deleting weather through this URI moves the rows to the archive instead.
+        public static Uri buildWeatherArchiving() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PATH_ARCHIVE, "true").build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return uri.getBooleanQueryParameter(PATH_ARCHIVE, false);
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -157,6 +210,65 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        public static long getEndDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+
+        // A limit that is empty or not a number doesn't make a page, and neither does a key
+        // (after_location_id, after_date) that is there but not a number: the URI is read as
+        // if it had no paging, rather than failing the query.
+        public static boolean isPageUri(Uri uri) {
+            return parseLimit(uri.getQueryParameter(QUERY_LIMIT)) != null
+                    && isPageKey(uri.getQueryParameter(QUERY_AFTER_LOCATION_ID))
+                    && isPageKey(uri.getQueryParameter(QUERY_AFTER_DATE));
+        }
+
+        // Missing or empty means the first page.
+        private static boolean isPageKey(String value) {
+            return null == value || value.length() == 0 || parseLong(value) != null;
+        }
+
+        /** @return the page size asked for, or 0 if the URI isn't a page */
+        public static int getLimitFromUri(Uri uri) {
+            Integer limit = parseLimit(uri.getQueryParameter(QUERY_LIMIT));
+            return limit == null ? 0 : limit;
+        }
+
+        private static Integer parseLimit(String value) {
+            if (null == value || value.length() == 0)
+                return null;
+            try {
+                return Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public static long getAfterLocationIdFromUri(Uri uri) {
+            return getLongQueryParameter(uri, QUERY_AFTER_LOCATION_ID);
+        }
+
+        public static long getAfterDateFromUri(Uri uri) {
+            return getLongQueryParameter(uri, QUERY_AFTER_DATE);
+        }
+
+        /** @return the value, or 0 if it is missing, empty or not a number */
+        private static long getLongQueryParameter(Uri uri, String key) {
+            String value = uri.getQueryParameter(key);
+            if (null == value || value.length() == 0)
+                return 0;
+            Long number = parseLong(value);
+            return number == null ? 0 : number;
+        }
+
+        private static Long parseLong(String value) {
+            try {
+                return Long.valueOf(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +277,132 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /*
+        The current conditions: for every location, its weather row for the first stored day from
+        today on, together with the location's own columns, so today's forecast is one primary
+        key lookup rather than a join.  The provider keeps it up to date as it writes weather
+        and locations, and catches it up when a day has gone by since.  Only queries by
+        location are supported.
+     */
+    public static final class CurrentEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CURRENT).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CURRENT;
+
+        public static final String TABLE_NAME = "current";
+
+        // The primary key.  The other columns are named as in the weather and location tables,
+        // so a projection written for the weather URIs works here unchanged.
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
+
+        public static Uri buildCurrentLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /*
+        Past weather moved out of the weather table by the sync: a row per day for the last
+        three months, and a row per week before that.  Read it through the weather range URI,
+        which also covers the days still in the weather table.
+     */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "archive";
+
+        // The other columns are named as in the weather table.  For a week, the date is its
+        // Monday, the temperatures are the lowest low and the highest high, the weather is the
+        // most frequent one, and the rest are averages.
+
+        // The last day the row covers: the date itself for a day, the Sunday for a week.
+        public static final String COLUMN_END_DATE = "end_date";
+
+        // How many days of weather went into the row.
+        public static final String COLUMN_DAY_COUNT = "day_count";
+    }
+
+    /*
+        Not a table: the timings of recent syncs, kept in memory by the sync adapter.  The base
+        URI gives one row per stage with percentiles over the recent syncs, "recent" gives one
+        row per stage of every recent sync, and "breaker" the one row of the fetch circuit
+        breaker.  All times are in milliseconds.
+     */
+    public static final class SyncStatsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATS).build();
+
+        public static final Uri RECENT_CONTENT_URI =
+                CONTENT_URI.buildUpon().appendPath("recent").build();
+
+        public static final Uri BREAKER_CONTENT_URI =
+                CONTENT_URI.buildUpon().appendPath("breaker").build();
+
+        public static final Uri QUERY_CACHE_CONTENT_URI =
+                CONTENT_URI.buildUpon().appendPath("query_cache").build();
+
+        public static final Uri LOCATION_REGISTRY_CONTENT_URI =
+                CONTENT_URI.buildUpon().appendPath("locations").build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATS;
+
+        // Stage name, e.g. "connect", "ttfb" or "publish:wear"
+        public static final String COLUMN_STAGE = "stage";
+
+        // Summary columns
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_P50 = "p50";
+        public static final String COLUMN_P90 = "p90";
+        public static final String COLUMN_P99 = "p99";
+        public static final String COLUMN_MAX = "max";
+
+        // Recent columns: when the sync started, in milliseconds since the epoch, and the time
+        // the stage took
+        public static final String COLUMN_SYNC_START = "sync_start";
+        public static final String COLUMN_MILLIS = "millis";
+
+        // Breaker columns: the state of the fetch circuit breaker, one of
+        // FetchCircuitBreaker.STATE_*, the failed fetches in a row, when the next fetch is
+        // allowed (milliseconds since the epoch, 0 when closed), how often it opened and how many
+        // syncs it skipped
+        public static final String COLUMN_BREAKER_STATE = "breaker_state";
+        public static final String COLUMN_CONSECUTIVE_FAILURES = "consecutive_failures";
+        public static final String COLUMN_NEXT_RETRY = "next_retry";
+        public static final String COLUMN_TRIP_COUNT = "trip_count";
+        public static final String COLUMN_SUPPRESSED_COUNT = "suppressed_count";
+
+        // Query cache columns: the provider's query result cache since the process started,
+        // entries pushed out by newer ones, writes that dropped entries, and entries held out of
+        // how many it may hold
+        public static final String COLUMN_CACHE_HITS = "cache_hits";
+        public static final String COLUMN_CACHE_MISSES = "cache_misses";
+        public static final String COLUMN_CACHE_EVICTIONS = "cache_evictions";
+        public static final String COLUMN_CACHE_INVALIDATIONS = "cache_invalidations";
+        public static final String COLUMN_CACHE_SIZE = "cache_size";
+        public static final String COLUMN_CACHE_MAX_SIZE = "cache_max_size";
+
+        // Location registry columns: the sync adapter's location lookups answered from memory,
+        // each one a provider query saved, the ones that weren't, the locations it holds, and
+        // what the provider's location upserts did
+        public static final String COLUMN_REGISTRY_HITS = "registry_hits";
+        public static final String COLUMN_REGISTRY_MISSES = "registry_misses";
+        public static final String COLUMN_REGISTRY_SIZE = "registry_size";
+        public static final String COLUMN_LOCATIONS_INSERTED = "locations_inserted";
+        public static final String COLUMN_LOCATIONS_UPDATED = "locations_updated";
+        public static final String COLUMN_LOCATIONS_UNCHANGED = "locations_unchanged";
+    }
 }
@@ -15,10 +15,18 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.app.data.WeatherContract.CurrentEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +35,112 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, add a
+    // Migration from the previous version to MIGRATIONS, and capture the previous schema in
+    // TestMigrations.
+    static final int DATABASE_VERSION = 5;
+
+    // Older databases are from before migrations; they're dropped and synced again.
+    static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    // The whole upgrade runs on the first open after an app update, in front of whatever
+    // screen or widget asked for the data, so it has to stay well inside this.
+    static final long MIGRATION_BUDGET_MILLIS = 250;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the provider's joins: location_setting finds the location through the UNIQUE
+    // index on location, and this one then finds that location's days, already in date order.
+    // The UNIQUE (date, location_id) index can't do that, because date comes first.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    // SQLite's own default: checkpoint once the log holds this many 4 KB pages.
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // What the log is truncated back to after a checkpoint, so one big sync doesn't leave a
+    // large file behind for good.
+    static final long JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    // With write-ahead logging the widgets, Muzei, the wearable and the loaders keep reading
+    // the last committed forecast while the sync adapter's bulkInsert transaction is open,
+    // instead of waiting for it.  The framework then hands reads to a small pool of reader
+    // connections; its size is a platform setting this API level can't change.
+    private static volatile boolean sWriteAheadLogging = true;
+    private static volatile int sWalAutoCheckpointPages = DEFAULT_WAL_AUTOCHECKPOINT_PAGES;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(sWriteAheadLogging);
+        }
+    }
+
+    /**
+     * Whether helpers created from now on open the database in write-ahead logging mode.
+     * The default is on; benchmarks turn it off to compare against the rollback journal.
+     */
+    static void setWriteAheadLogging(boolean enabled) {
+        sWriteAheadLogging = enabled;
+    }
+
+    /**
+     * How many pages the write-ahead log may grow to before a commit checkpoints it, for
+     * helpers created from now on.  Zero or less turns automatic checkpoints off.
+     */
+    static void setWalAutoCheckpointPages(int pages) {
+        sWalAutoCheckpointPages = pages;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean the helper has no switch for this, so flip the open database.
+            if (sWriteAheadLogging) {
+                db.enableWriteAheadLogging();
+            } else {
+                db.disableWriteAheadLogging();
+            }
+        }
+        // Both of these PRAGMAs answer with a row, so they have to go through a query.
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA wal_autocheckpoint = " + Math.max(0, sWalAutoCheckpointPages), null);
+        DatabaseUtils.longForQuery(db,
+                "PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES, null);
+    }
+
+    /**
+     * Copies the write-ahead log back into the database without waiting on readers, so it
+     * doesn't grow between automatic checkpoints and readers have less of it to search.
+     * Does nothing with the rollback journal.  Must not be called inside a transaction.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        if (!isWriteAheadLogging(db)) {
+            return;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static boolean isWriteAheadLogging(SQLiteDatabase db) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return isWriteAheadLoggingJellyBean(db);
+        }
+        return "wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static boolean isWriteAheadLoggingJellyBean(SQLiteDatabase db) {
+        return db.isWriteAheadLoggingEnabled();
     }
 
     @Override
@@ -79,20 +186,168 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // One row per location, copied from the two tables above by the provider.  Nothing
+        // refers to it, so it has no _ID of its own.
+        final String SQL_CREATE_CURRENT_TABLE = "CREATE TABLE " + CurrentEntry.TABLE_NAME + " (" +
+                CurrentEntry.COLUMN_LOCATION_SETTING + " TEXT PRIMARY KEY NOT NULL, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL);";
+
+        // Days and weeks moved out of the weather table.  The unique constraint's index is also
+        // what range queries look rows up by, and without AUTOINCREMENT there is no
+        // sqlite_sequence row to keep up for every insert.
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY, " +
+                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                // A week and its Monday are different rows.
+                " UNIQUE (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                ArchiveEntry.COLUMN_END_DATE + ") ON CONFLICT REPLACE);";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_CURRENT_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        createIndexes(sqLiteDatabase);
+    }
+
+    static void createIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                " ON " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
+    }
+
+    /**
+     * One step of the schema, from {@link #fromVersion} to the version after it.  A step must
+     * keep the rows it finds, and must spell out its own SQL rather than call onCreate() or
+     * createIndexes(), which only ever describe the latest version.
+     */
+    abstract static class Migration {
+        final int fromVersion;
+
+        Migration(int fromVersion) {
+            this.fromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
     }
 
+    // One per version from FIRST_MIGRATABLE_VERSION up to DATABASE_VERSION - 1, in order.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: the location/date index
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                            " ON " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // 3 -> 4: the current conditions table, left empty until the next weather write
+            // fills it; until then the provider reads current conditions from the weather table
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE current (" +
+                            "location_setting TEXT PRIMARY KEY NOT NULL, " +
+                            "location_id INTEGER NOT NULL, " +
+                            "city_name TEXT NOT NULL, " +
+                            "coord_lat REAL NOT NULL, " +
+                            "coord_long REAL NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL);");
+                }
+            },
+            // 4 -> 5: the archive, empty until the first sync after the upgrade moves old days
+            // into it
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE archive (" +
+                            "_id INTEGER PRIMARY KEY, " +
+                            "location_id INTEGER NOT NULL, " +
+                            "date INTEGER NOT NULL, " +
+                            "end_date INTEGER NOT NULL, " +
+                            "day_count INTEGER NOT NULL, " +
+                            "short_desc TEXT NOT NULL, " +
+                            "weather_id INTEGER NOT NULL, " +
+                            "min REAL NOT NULL, " +
+                            "max REAL NOT NULL, " +
+                            "humidity REAL NOT NULL, " +
+                            "pressure REAL NOT NULL, " +
+                            "wind REAL NOT NULL, " +
+                            "degrees REAL NOT NULL, " +
+                            " UNIQUE (location_id, date, end_date) ON CONFLICT REPLACE);");
+                }
+            }
+    };
+
+    /*
+        Runs the migrations from oldVersion up, one version at a time, so a user who skipped a
+        few updates keeps the last forecast on screen instead of a blank list until the next
+        sync.  SQLiteOpenHelper wraps the whole upgrade in one transaction: if a step throws,
+        the database stays at oldVersion and the next open tries again.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // This database is only a cache for online data, and nothing describes how these
+            // versions got to the first migratable one, so discard the data and start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        long upgradeStart = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            long start = SystemClock.elapsedRealtime();
+            getMigration(version).migrate(sqLiteDatabase);
+            Log.d(LOG_TAG, "Migrated from version " + version + " to " + (version + 1) + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        long millis = SystemClock.elapsedRealtime() - upgradeStart;
+        if (millis > MIGRATION_BUDGET_MILLIS) {
+            Log.w(LOG_TAG, "Upgrading from version " + oldVersion + " to " + newVersion
+                    + " took " + millis + " ms, over the " + MIGRATION_BUDGET_MILLIS + " ms budget");
+        }
+    }
+
+    private static Migration getMigration(int fromVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.fromVersion == fromVersion) {
+                return migration;
+            }
+        }
+        throw new IllegalStateException("No migration from database version " + fromVersion);
     }
 }
@@ -17,12 +17,27 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.format.DateUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +45,29 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Set while this thread is inside applyBatch().
+    private final ThreadLocal<BatchState> mBatchState = new ThreadLocal<BatchState>();
+
+    private final QueryResultCache mQueryCache =
+            new QueryResultCache(QueryResultCache.DEFAULT_MAX_ENTRIES);
+
+    // Where the sync adapter's sync_stats rows come from; null until the app registers it.
+    private static volatile SyncStatsSource sSyncStatsSource;
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_AND_RANGE = 103;
+    static final int CURRENT_WITH_LOCATION = 200;
     static final int LOCATION = 300;
+    static final int SYNC_STATS = 400;
+    static final int SYNC_STATS_RECENT = 401;
+    static final int SYNC_STATS_BREAKER = 402;
+    static final int SYNC_STATS_QUERY_CACHE = 403;
+    static final int SYNC_STATS_LOCATION_REGISTRY = 404;
+    static final int ARCHIVE = 500;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,26 +84,261 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    // The most rows a page may hold, whatever its URI asks for.  A weather row with its
+    // location takes a few hundred bytes of CursorWindow, so a full page stays well inside one
+    // 2 MB window and crosses the binder in one go.
+    static final int MAX_PAGE_SIZE = 1000;
+
+    //location.location_setting = ? AND date > ?
+    static final String sLocationSettingAfterDateSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ? ";
+
+    //location_id >= ? AND (location_id > ? OR date > ?)
+    // The rows after a (location, date) key.  The first term is where the search of the
+    // location/date index starts, so a page costs the same however deep it is.
+    static final String sWeatherAfterKeySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " >= ? AND (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " > ? OR " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " > ?) ";
+
+    static final String sWeatherKeyOrder =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " ASC, " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    //weather.location_id = ? AND date = ?
+    private static final String sWeatherLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    // What a weather range row has besides its _ID, location ID, dates and day count.
+    private static final String sWeatherRangeColumns =
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG;
+
+    // The weather of location ?1 from ?2 to ?3: the days still in the weather table, then the
+    // days and weeks of the archive that overlap the range.  ?4 is ?2 less a week and a day,
+    // so the archive's index is searched from the earliest week that can reach into the range.
+    // Archive rows get negative IDs, so no two rows of a range share one.
+    static final String sWeatherRangeTables =
+            "(SELECT " + WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry._ID + " AS " + WeatherContract.WeatherEntry._ID + ", " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " AS " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " AS " +
+                    WeatherContract.ArchiveEntry.COLUMN_END_DATE + ", " +
+                    "1 AS " + WeatherContract.ArchiveEntry.COLUMN_DAY_COUNT + ", " +
+                    sWeatherRangeColumns +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " WHERE " + WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?1 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?2 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?3" +
+                    " UNION ALL SELECT -" + WeatherContract.ArchiveEntry.TABLE_NAME + "." +
+                    WeatherContract.ArchiveEntry._ID + ", " +
+                    WeatherContract.ArchiveEntry.TABLE_NAME + "." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_END_DATE + ", " +
+                    WeatherContract.ArchiveEntry.COLUMN_DAY_COUNT + ", " +
+                    sWeatherRangeColumns +
+                    " FROM " + WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                    WeatherContract.ArchiveEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " WHERE " + WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?1 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?4 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?3 AND " +
+                    WeatherContract.ArchiveEntry.COLUMN_END_DATE + " >= ?2)";
+
+    static final SQLiteQueryBuilder sWeatherRangeQueryBuilder;
+
+    static {
+        sWeatherRangeQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherRangeQueryBuilder.setTables(sWeatherRangeTables);
+    }
+
+    // Parameters ?1 to ?10 are numbered in this order in both statements, so one set of
+    // bindings serves both.
+    private static final String sWeatherUpsertColumns =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES;
+
+    // Only touches the row if some value differs, so an identical forecast writes nothing.
+    private static final String sUpdateChangedWeatherSql =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?3, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?4, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?5, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?6, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?7, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?8, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?9, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ?10" +
+                    " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ?2 AND (" +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " IS NOT ?3 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " IS NOT ?4 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " IS NOT ?5 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " IS NOT ?6 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " IS NOT ?7 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " IS NOT ?8 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " IS NOT ?9 OR " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " IS NOT ?10)";
+
+    // OR IGNORE, so an existing (date, location) row is left alone instead of being replaced.
+    private static final String sInsertNewWeatherSql =
+            "INSERT OR IGNORE INTO " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " (" + sWeatherUpsertColumns + ") VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10)";
+
+    // OR IGNORE, so a location that is already stored keeps its row and _ID.
+    private static final String sInsertNewLocationSql =
+            "INSERT OR IGNORE INTO " + WeatherContract.LocationEntry.TABLE_NAME + " (" +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ") VALUES (?1, ?2, ?3, ?4)";
+
+    // Only touches the row if OpenWeatherMap revised the city or its coordinates.
+    private static final String sUpdateChangedLocationSql =
+            "UPDATE " + WeatherContract.LocationEntry.TABLE_NAME + " SET " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + " = ?2, " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + " = ?3, " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + " = ?4" +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?1 AND (" +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + " IS NOT ?2 OR " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + " IS NOT ?3 OR " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + " IS NOT ?4)";
+
+    private static final String sCurrentColumns =
+            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES;
+
+    // Every location's first day from ?1 (today) on, with the current table's columns.  The
+    // subquery is a lookup on the location/date index.
+    private static final String sCurrentSelectSql =
+            "SELECT " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " AS " +
+                    WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " AS " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.LocationEntry.COLUMN_CITY_NAME + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LAT + ", " +
+                    WeatherContract.LocationEntry.COLUMN_COORD_LONG + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                    WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                    " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " = (SELECT MIN(first." +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ") FROM " +
+                    WeatherContract.WeatherEntry.TABLE_NAME + " AS first WHERE first." +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = " +
+                    WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+                    " AND first." + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?1)";
+
+    // The same for one location, ?2, by its setting.
+    private static final String sCurrentLocationSelectSql = sCurrentSelectSql + " AND " +
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?2";
+
+    // Copies the rows of the selects above into the current table; the last one is for one
+    // location, ?2, by its _ID.
+    private static final String sInsertCurrentSql =
+            "INSERT OR REPLACE INTO " + WeatherContract.CurrentEntry.TABLE_NAME +
+                    " (" + sCurrentColumns + ") ";
+    static final String sRefreshCurrentSql = sInsertCurrentSql + sCurrentSelectSql;
+    private static final String sRefreshCurrentLocationSql =
+            sInsertCurrentSql + sCurrentLocationSelectSql;
+    private static final String sRefreshCurrentLocationIdSql = sRefreshCurrentSql + " AND " +
+            WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID + " = ?2";
+
+    //location_id NOT IN (SELECT _id FROM location)
+    private static final String sArchiveWithoutLocationSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " NOT IN (SELECT " +
+                    WeatherContract.LocationEntry._ID + " FROM " +
+                    WeatherContract.LocationEntry.TABLE_NAME + ")";
+
+    //current.location_setting = ? AND date >= ?
+    static final String sCurrentLocationSettingSelection =
+            WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        if (WeatherContract.WeatherEntry.isPageUri(uri)) {
+            // Pages always go by date, whatever the sort order; a start date still applies.
+            return queryWeatherLocationPage(mOpenHelper.getReadableDatabase(), projection,
+                    locationSetting,
+                    Math.max(WeatherContract.WeatherEntry.getAfterDateFromUri(uri), startDate - 1),
+                    WeatherContract.WeatherEntry.getLimitFromUri(uri));
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -93,6 +360,56 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * @return up to limit days of the location after afterDate, by date
+     */
+    static Cursor queryWeatherLocationPage(SQLiteDatabase db, String[] projection,
+                                           String locationSetting, long afterDate, int limit) {
+        return sWeatherByLocationSettingQueryBuilder.query(db,
+                projection,
+                sLocationSettingAfterDateSelection,
+                new String[]{locationSetting, Long.toString(afterDate)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                Integer.toString(getPageSize(limit))
+        );
+    }
+
+    /**
+     * @return up to limit rows of the weather table that match the selection, if any, and
+     * come after the given location ID and date, by location ID and date
+     */
+    static Cursor queryWeatherPage(SQLiteDatabase db, String[] projection, String selection,
+                                   String[] selectionArgs, long afterLocationId, long afterDate,
+                                   int limit) {
+        String[] keyArgs = new String[]{Long.toString(afterLocationId),
+                Long.toString(afterLocationId), Long.toString(afterDate)};
+        String keySelection = sWeatherAfterKeySelection;
+        if (selection != null) {
+            keySelection = "(" + selection + ") AND " + keySelection;
+            if (selectionArgs != null) {
+                String[] args = new String[selectionArgs.length + keyArgs.length];
+                System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+                System.arraycopy(keyArgs, 0, args, selectionArgs.length, keyArgs.length);
+                keyArgs = args;
+            }
+        }
+        return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                keySelection,
+                keyArgs,
+                null,
+                null,
+                sWeatherKeyOrder,
+                Integer.toString(getPageSize(limit))
+        );
+    }
+
+    static int getPageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
     private Cursor getWeatherByLocationSettingAndDate(
             Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
@@ -108,6 +425,138 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getWeatherByLocationSettingAndRange(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getDateFromUri(uri);
+        long endDate = WeatherContract.WeatherEntry.getEndDateFromUri(uri);
+        long earliestWeekStart = startDate - (WeatherArchive.WEEK_DAYS + 1) * DateUtils.DAY_IN_MILLIS;
+
+        return sWeatherRangeQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                null,
+                new String[]{locationSetting, Long.toString(startDate), Long.toString(endDate),
+                        Long.toString(earliestWeekStart)},
+                null,
+                null,
+                sortOrder != null ? sortOrder : WeatherContract.WeatherEntry.COLUMN_DATE + " ASC"
+        );
+    }
+
+    /*
+        The row only counts if it isn't from a day that has gone by.  If there is none, which
+        happens between midnight and the next sync's archiving, or after an upgrade that created
+        the table empty, the same row is read straight from the weather table.  Only writes fill
+        the current table; a query never does.
+     */
+    private Cursor getCurrentByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.CurrentEntry.getLocationSettingFromUri(uri);
+        String[] selectionArgs = new String[]{locationSetting,
+                Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()))};
+
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.CurrentEntry.TABLE_NAME,
+                projection,
+                sCurrentLocationSettingSelection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder);
+        if (cursor.getCount() > 0 || mBatchState.get() != null) {
+            return cursor;
+        }
+        cursor.close();
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                "(" + sCurrentLocationSelectSql + ")", projection, null, null, null, sortOrder, null);
+        return mOpenHelper.getReadableDatabase().rawQuery(sql,
+                new String[]{selectionArgs[1], locationSetting});
+    }
+
+    /**
+     * Lets the sync package answer the sync_stats URIs about the sync adapter, without the
+     * provider depending on it.
+     */
+    public static void setSyncStatsSource(SyncStatsSource source) {
+        sSyncStatsSource = source;
+    }
+
+    private static Cursor getSyncStatsSummary() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.SyncStatsEntry.COLUMN_STAGE,
+                WeatherContract.SyncStatsEntry.COLUMN_COUNT,
+                WeatherContract.SyncStatsEntry.COLUMN_P50,
+                WeatherContract.SyncStatsEntry.COLUMN_P90,
+                WeatherContract.SyncStatsEntry.COLUMN_P99,
+                WeatherContract.SyncStatsEntry.COLUMN_MAX});
+        SyncStatsSource source = sSyncStatsSource;
+        if (source != null) {
+            source.addSummaryRows(cursor);
+        }
+        return cursor;
+    }
+
+    private static Cursor getRecentSyncStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.SyncStatsEntry.COLUMN_SYNC_START,
+                WeatherContract.SyncStatsEntry.COLUMN_STAGE,
+                WeatherContract.SyncStatsEntry.COLUMN_MILLIS});
+        SyncStatsSource source = sSyncStatsSource;
+        if (source != null) {
+            source.addRecentRows(cursor);
+        }
+        return cursor;
+    }
+
+    private static Cursor getCircuitBreakerState() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.SyncStatsEntry.COLUMN_BREAKER_STATE,
+                WeatherContract.SyncStatsEntry.COLUMN_CONSECUTIVE_FAILURES,
+                WeatherContract.SyncStatsEntry.COLUMN_NEXT_RETRY,
+                WeatherContract.SyncStatsEntry.COLUMN_TRIP_COUNT,
+                WeatherContract.SyncStatsEntry.COLUMN_SUPPRESSED_COUNT});
+        SyncStatsSource source = sSyncStatsSource;
+        if (source != null) {
+            source.addBreakerRow(cursor);
+        }
+        return cursor;
+    }
+
+    private Cursor getQueryCacheStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_HITS,
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_MISSES,
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_EVICTIONS,
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_INVALIDATIONS,
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_SIZE,
+                WeatherContract.SyncStatsEntry.COLUMN_CACHE_MAX_SIZE});
+        cursor.addRow(new Object[]{
+                mQueryCache.getHitCount(),
+                mQueryCache.getMissCount(),
+                mQueryCache.getEvictionCount(),
+                mQueryCache.getInvalidationCount(),
+                mQueryCache.size(),
+                mQueryCache.maxSize()});
+        return cursor;
+    }
+
+    private Cursor getLocationRegistryStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                WeatherContract.SyncStatsEntry.COLUMN_REGISTRY_HITS,
+                WeatherContract.SyncStatsEntry.COLUMN_REGISTRY_MISSES,
+                WeatherContract.SyncStatsEntry.COLUMN_REGISTRY_SIZE,
+                WeatherContract.SyncStatsEntry.COLUMN_LOCATIONS_INSERTED,
+                WeatherContract.SyncStatsEntry.COLUMN_LOCATIONS_UPDATED,
+                WeatherContract.SyncStatsEntry.COLUMN_LOCATIONS_UNCHANGED});
+        cursor.addRow(new Object[]{
+                LocationRegistry.getHitCount(),
+                LocationRegistry.getMissCount(),
+                LocationRegistry.size(),
+                LocationRegistry.getInsertedCount(),
+                LocationRegistry.getUpdatedCount(),
+                LocationRegistry.getUnchangedCount()});
+        return cursor;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +577,19 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#/#", WEATHER_WITH_LOCATION_AND_RANGE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_CURRENT + "/*", CURRENT_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS, SYNC_STATS);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS + "/recent", SYNC_STATS_RECENT);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS + "/breaker", SYNC_STATS_BREAKER);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS + "/query_cache", SYNC_STATS_QUERY_CACHE);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATS + "/locations", SYNC_STATS_LOCATION_REGISTRY);
         return matcher;
     }
 
@@ -160,28 +620,70 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_WITH_LOCATION_AND_RANGE:
+                return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case CURRENT_WITH_LOCATION:
+                return WeatherContract.CurrentEntry.CONTENT_ITEM_TYPE;
+            case ARCHIVE:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case SYNC_STATS:
+            case SYNC_STATS_RECENT:
+            case SYNC_STATS_BREAKER:
+            case SYNC_STATS_QUERY_CACHE:
+            case SYNC_STATS_LOCATION_REGISTRY:
+                return WeatherContract.SyncStatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
     }
 
+    /*
+        Queries for a location's weather are answered from the query result cache when they can
+        be.  Everything in the app writes through this provider, so its notifications are all the
+        cache needs to stay current.  Inside applyBatch() queries go to the database, which holds
+        the batch's uncommitted rows.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        QueryResultCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (mBatchState.get() == null) {
+            cacheKey = buildCacheKey(match, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        if (cacheKey != null) {
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        Uri notificationUri = uri;
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
                 retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/*/*"
+            case WEATHER_WITH_LOCATION_AND_RANGE: {
+                retCursor = getWeatherByLocationSettingAndRange(uri, projection, sortOrder);
+                // New days are notified under the location, not under any range.
+                notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                break;
+            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
@@ -189,6 +691,14 @@ public class WeatherProvider extends ContentProvider {
             }
             // "weather"
             case WEATHER: {
+                if (WeatherContract.WeatherEntry.isPageUri(uri)) {
+                    retCursor = queryWeatherPage(mOpenHelper.getReadableDatabase(), projection,
+                            selection, selectionArgs,
+                            WeatherContract.WeatherEntry.getAfterLocationIdFromUri(uri),
+                            WeatherContract.WeatherEntry.getAfterDateFromUri(uri),
+                            WeatherContract.WeatherEntry.getLimitFromUri(uri));
+                    break;
+                }
                 retCursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
@@ -213,14 +723,94 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "current/*"
+            case CURRENT_WITH_LOCATION: {
+                retCursor = getCurrentByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_stats"
+            case SYNC_STATS: {
+                retCursor = getSyncStatsSummary();
+                break;
+            }
+            // "sync_stats/recent"
+            case SYNC_STATS_RECENT: {
+                retCursor = getRecentSyncStats();
+                break;
+            }
+            // "sync_stats/breaker"
+            case SYNC_STATS_BREAKER: {
+                retCursor = getCircuitBreakerState();
+                break;
+            }
+            // "sync_stats/query_cache"
+            case SYNC_STATS_QUERY_CACHE: {
+                retCursor = getQueryCacheStats();
+                break;
+            }
+            // "sync_stats/locations"
+            case SYNC_STATS_LOCATION_REGISTRY: {
+                retCursor = getLocationRegistryStats();
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (cacheKey != null) {
+            retCursor = mQueryCache.put(cacheKey, retCursor, cacheGeneration);
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
         return retCursor;
     }
 
+    /**
+     * @return the key of a query the cache may answer, or null for any other query
+     */
+    private static QueryResultCache.Key buildCacheKey(int match, Uri uri, String[] projection,
+                                                      String selection, String[] selectionArgs,
+                                                      String sortOrder) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_WITH_LOCATION:
+                return QueryResultCache.key(match, uri, projection, selection, selectionArgs,
+                        sortOrder, WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Drops what a change notified on the given URI can have made stale: weather/[location]/...
+     * drops that location's queries, anything wider drops them all.  Called before observers
+     * hear about the change, so none of them can requery into a stale entry.
+     */
+    private void invalidateQueryCache(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (!segments.isEmpty() && WeatherContract.PATH_CURRENT.equals(segments.get(0))) {
+            // Never cached.
+            return;
+        }
+        if (segments.size() > 1 && WeatherContract.PATH_WEATHER.equals(segments.get(0))) {
+            mQueryCache.invalidateLocation(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+        } else {
+            mQueryCache.invalidateAll();
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -233,14 +823,56 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                BatchState batchState = mBatchState.get();
+                if (batchState != null) {
+                    // Notified once the batch commits.
+                    return upsertWeatherInBatch(db, batchState, values);
+                }
+                long _id;
+                db.beginTransaction();
+                try {
+                    _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if (_id > 0) {
+                        refreshCurrent(db, null);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
                 break;
             }
             case LOCATION: {
+                if (isCompleteLocation(values)) {
+                    String locationSetting =
+                            values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    int outcome;
+                    db.beginTransaction();
+                    try {
+                        outcome = upsertLocation(db, values);
+                        if (outcome == LocationRegistry.UPSERT_UPDATED) {
+                            // The current table carries the city and its coordinates too.
+                            refreshCurrent(db, locationSetting);
+                        }
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(
+                                getLocationId(db, locationSetting));
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    if (outcome == LocationRegistry.UPSERT_UNCHANGED) {
+                        // Nothing for observers to hear about.
+                        return returnUri;
+                    }
+                    if (outcome == LocationRegistry.UPSERT_UPDATED) {
+                        notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+                    }
+                    break;
+                }
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
@@ -251,7 +883,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -262,26 +894,114 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        boolean archiving = false;
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    archiving = WeatherContract.WeatherEntry.isArchivingUri(uri);
+                    if (archiving) {
+                        rowsDeleted = WeatherArchive.archive(
+                                db, selection, selectionArgs, System.currentTimeMillis());
+                    } else {
+                        rowsDeleted = db.delete(
+                                WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    }
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    LocationRegistry.invalidate();
+                    if (rowsDeleted != 0) {
+                        // The archive has nothing to show for a location that is gone.
+                        db.delete(WeatherContract.ArchiveEntry.TABLE_NAME,
+                                sArchiveWithoutLocationSelection, null);
+                    }
+                    break;
+                case ARCHIVE:
+                    rowsDeleted = db.delete(
+                            WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (rowsDeleted != 0 && match != ARCHIVE) {
+                refreshCurrent(db, null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == ARCHIVE) {
+                notifyChange(uri);
+                // Weather ranges read the archive.
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            } else if (archiving) {
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+            } else {
+                notifyChange(uri);
+                notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+            }
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    // Exactly the four columns a location row is made of, as the sync adapter sends it.
+    private static boolean isCompleteLocation(ContentValues values) {
+        return values.size() == 4
+                && values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING) != null
+                && values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME) != null
+                && values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT) != null
+                && values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG) != null;
+    }
+
+    /**
+     * Inserts the location if its setting is new, and otherwise brings the stored city name and
+     * coordinates up to date if they differ.  An identical location writes nothing.
+     *
+     * @return one of the LocationRegistry.UPSERT_ constants
+     */
+    static int upsertLocation(SQLiteDatabase db, ContentValues values) {
+        int outcome;
+        SQLiteStatement insert = db.compileStatement(sInsertNewLocationSql);
+        SQLiteStatement update = db.compileStatement(sUpdateChangedLocationSql);
+        try {
+            bindLocation(insert, values);
+            if (insert.executeInsert() != -1) {
+                outcome = LocationRegistry.UPSERT_INSERTED;
+            } else {
+                bindLocation(update, values);
+                outcome = update.executeUpdateDelete() > 0
+                        ? LocationRegistry.UPSERT_UPDATED : LocationRegistry.UPSERT_UNCHANGED;
+            }
+        } finally {
+            insert.close();
+            update.close();
+        }
+        LocationRegistry.recordUpsert(outcome);
+        return outcome;
+    }
+
+    private static void bindLocation(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+        statement.bindString(2, values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME));
+        statement.bindDouble(3, values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT));
+        statement.bindDouble(4, values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG));
+    }
+
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT " + WeatherContract.LocationEntry._ID +
+                        " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                        " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting});
+    }
+
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -296,58 +1016,507 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
 
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        db.beginTransaction();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    LocationRegistry.invalidate();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (rowsUpdated != 0) {
+                refreshCurrent(db, null);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
         }
         return rowsUpdated;
     }
 
+    /*
+        Weather rows are upserted rather than inserted: a plain insert would go through the
+        table's ON CONFLICT REPLACE, which deletes the old row and burns a fresh _ID even when
+        nothing changed.  The returned count is the number of rows inserted or updated, and only
+        the location/date URIs of those rows are notified.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                // Complete rows take the compiled statements; partial ones need the
+                // column-by-column comparison.
+                WeatherChangeSet changeSet;
                 db.beginTransaction();
-                int returnCount = 0;
                 try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
+                    changeSet = upsertWeather(db, values);
+                    refreshChangedCurrent(db, changeSet);
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                if (!changeSet.isEmpty()) {
+                    WeatherDbHelper.checkpoint(db);
+                }
+                notifyWeatherChanges(db, changeSet);
+                return changeSet.getChangedCount();
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * The compiled weather upsert.  The two statements are compiled on first use and reused for
+     * every row, and the values are bound straight from the row's ContentValues.  Each row is an
+     * UPDATE that only matches if something differs, followed, if that touched nothing, by an
+     * INSERT OR IGNORE that only succeeds if the row is new.
+     */
+    static class WeatherUpsert {
+        // Every weather column but _ID.
+        private static final int COLUMN_COUNT = 10;
+
+        private final SQLiteDatabase mDb;
+        private SQLiteStatement mUpdate;
+        private SQLiteStatement mInsert;
+
+        WeatherUpsert(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        /**
+         * Upserts a row with a normalized date.
+         * @return false, having written nothing, if the row doesn't carry every weather column
+         */
+        boolean upsert(ContentValues value, WeatherChangeSet changeSet) {
+            if (value.size() != COLUMN_COUNT) {
+                return false;
+            }
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Long weatherId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+            String shortDesc = value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+            Double minTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+            if (locationId == null || date == null || weatherId == null || shortDesc == null
+                    || minTemp == null || maxTemp == null || humidity == null
+                    || pressure == null || windSpeed == null || degrees == null) {
+                return false;
+            }
+            if (mUpdate == null) {
+                mUpdate = mDb.compileStatement(sUpdateChangedWeatherSql);
+                mInsert = mDb.compileStatement(sInsertNewWeatherSql);
+            }
+
+            for (SQLiteStatement statement : new SQLiteStatement[]{mUpdate, mInsert}) {
+                statement.bindLong(1, locationId);
+                statement.bindLong(2, date);
+                statement.bindLong(3, weatherId);
+                statement.bindString(4, shortDesc);
+                statement.bindDouble(5, minTemp);
+                statement.bindDouble(6, maxTemp);
+                statement.bindDouble(7, humidity);
+                statement.bindDouble(8, pressure);
+                statement.bindDouble(9, windSpeed);
+                statement.bindDouble(10, degrees);
+            }
+            if (mUpdate.executeUpdateDelete() > 0) {
+                changeSet.addUpdated(locationId, date);
+            } else if (mInsert.executeInsert() != -1) {
+                changeSet.addInserted(locationId, date);
+            } else {
+                changeSet.addUnchanged();
+            }
+            return true;
+        }
+
+        void close() {
+            if (mUpdate != null) {
+                mUpdate.close();
+                mInsert.close();
+            }
+        }
+    }
+
+    /**
+     * Writes weather rows keyed by (location, date).  New pairs are inserted, existing ones are
+     * updated, and identical rows are left alone so they keep their _ID.  Rows that carry every
+     * weather column go through a {@link WeatherUpsert}; the rest through
+     * {@link #upsertWeatherColumns}.  Dates are normalized in place.  The caller is responsible
+     * for the transaction.
+     *
+     * @return what was inserted, updated and skipped
+     */
+    static WeatherChangeSet upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        WeatherChangeSet changeSet = new WeatherChangeSet();
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                if (!upsert.upsert(value, changeSet)) {
+                    upsertWeatherColumns(db, value, changeSet);
+                }
+            }
+        } finally {
+            upsert.close();
+        }
+        return changeSet;
+    }
+
+    /**
+     * The upsert for any weather rows, partial ones included: new (location, date) pairs are
+     * inserted, and existing ones are updated with only the columns whose values differ.  Dates
+     * are normalized in place.  The caller is responsible for the transaction.
+     *
+     * @return what was inserted, updated and skipped
+     */
+    static WeatherChangeSet upsertWeatherColumns(SQLiteDatabase db, ContentValues[] values) {
+        WeatherChangeSet changeSet = new WeatherChangeSet();
+        for (ContentValues value : values) {
+            normalizeDate(value);
+            upsertWeatherColumns(db, value, changeSet);
+        }
+        return changeSet;
+    }
+
+    private static void upsertWeatherColumns(SQLiteDatabase db, ContentValues value,
+                                             WeatherChangeSet changeSet) {
+        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Not something we can match on; let the insert's constraints have their say.
+            if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                changeSet.addInserted(locationId == null ? -1 : locationId,
+                        date == null ? -1 : date);
+            }
+            return;
+        }
+
+        String[] columns = value.keySet().toArray(new String[value.size() + 1]);
+        columns[columns.length - 1] = WeatherContract.WeatherEntry._ID;
+        Cursor existing = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                columns,
+                sWeatherLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)},
+                null,
+                null,
+                null);
+        try {
+            if (!existing.moveToFirst()) {
+                if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    changeSet.addInserted(locationId, date);
+                }
+                return;
+            }
+
+            ContentValues changed = new ContentValues();
+            for (int i = 0; i < columns.length - 1; i++) {
+                Object newValue = value.get(columns[i]);
+                if (!isSameValue(existing, i, newValue)) {
+                    putValue(changed, columns[i], newValue);
+                }
+            }
+            if (changed.size() == 0) {
+                changeSet.addUnchanged();
+            } else {
+                db.update(WeatherContract.WeatherEntry.TABLE_NAME, changed,
+                        WeatherContract.WeatherEntry._ID + " = ?",
+                        new String[]{existing.getString(columns.length - 1)});
+                changeSet.addUpdated(locationId, date);
+            }
+        } finally {
+            existing.close();
+        }
+    }
+
+    // Compares what SQLite stored against a ContentValues value, by the stored type, so a 75
+    // put as an int still matches the 75.0 a REAL column hands back.
+    private static boolean isSameValue(Cursor cursor, int column, Object value) {
+        if (value == null) {
+            return cursor.isNull(column);
+        }
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return false;
+            case Cursor.FIELD_TYPE_INTEGER:
+                if (value instanceof Boolean) {
+                    return cursor.getLong(column) == (((Boolean) value) ? 1 : 0);
+                }
+                if (value instanceof Float || value instanceof Double) {
+                    return cursor.getDouble(column) == ((Number) value).doubleValue();
+                }
+                if (value instanceof Number) {
+                    return cursor.getLong(column) == ((Number) value).longValue();
+                }
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                if (value instanceof Number) {
+                    return cursor.getDouble(column) == ((Number) value).doubleValue();
+                }
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                return value instanceof byte[]
+                        && Arrays.equals(cursor.getBlob(column), (byte[]) value);
+        }
+        return value.toString().equals(cursor.getString(column));
+    }
+
+    private static void putValue(ContentValues values, String key, Object value) {
+        if (value == null) {
+            values.putNull(key);
+        } else if (value instanceof String) {
+            values.put(key, (String) value);
+        } else if (value instanceof Long) {
+            values.put(key, (Long) value);
+        } else if (value instanceof Integer) {
+            values.put(key, (Integer) value);
+        } else if (value instanceof Double) {
+            values.put(key, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(key, (Float) value);
+        } else if (value instanceof Short) {
+            values.put(key, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(key, (Byte) value);
+        } else if (value instanceof Boolean) {
+            values.put(key, (Boolean) value);
+        } else if (value instanceof byte[]) {
+            values.put(key, (byte[]) value);
+        } else {
+            values.put(key, value.toString());
+        }
+    }
+
+    /*
+        What an applyBatch() on this thread has collected so far: the URIs to notify once it
+        commits, the weather rows it changed, and the weather upsert every weather insert goes
+        through, so its statements are compiled once per transaction.
+     */
+    private static class BatchState {
+        final Set<Uri> notifyUris = new LinkedHashSet<Uri>();
+        final WeatherChangeSet weatherChanges = new WeatherChangeSet();
+        WeatherUpsert weatherUpsert;
+
+        void close() {
+            if (weatherUpsert != null) {
+                weatherUpsert.close();
+            }
+        }
+    }
+
+    /*
+        The whole batch is one transaction, so readers see all of it or none of it, and it costs
+        a single commit.  That is how the sync adapter writes a sync: the location if it is new,
+        the days, and the move of old days to the archive.  Observers hear about it once, after
+        the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatchState.get() != null) {
+            // Nested in a batch on this thread, which owns the transaction.
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState state = new BatchState();
+        mBatchState.set(state);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            refreshChangedCurrent(db, state.weatherChanges);
+            notifyWeatherChanges(db, state.weatherChanges);
+            db.setTransactionSuccessful();
+        } finally {
+            state.close();
+            db.endTransaction();
+            mBatchState.remove();
+        }
+
+        if (state.notifyUris.isEmpty()) {
+            return results;
+        }
+        WeatherDbHelper.checkpoint(db);
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : coalesceNotifications(state.notifyUris)) {
+            invalidateQueryCache(uri);
+            resolver.notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * Inside applyBatch() a weather insert is an upsert, as in bulkInsert, using the batch's
+     * {@link WeatherUpsert}.
+     *
+     * @return the weather URI if the row was inserted or changed, or
+     * {@link WeatherContract.WeatherEntry#UNCHANGED_URI} if it was identical
+     */
+    private static Uri upsertWeatherInBatch(SQLiteDatabase db, BatchState state,
+                                            ContentValues values) {
+        WeatherChangeSet changes = state.weatherChanges;
+        int changedBefore = changes.getChangedCount();
+        if (state.weatherUpsert == null) {
+            state.weatherUpsert = new WeatherUpsert(db);
+        }
+        if (!state.weatherUpsert.upsert(values, changes)) {
+            upsertWeatherColumns(db, values, changes);
+        }
+        return changes.getChangedCount() > changedBefore
+                ? WeatherContract.WeatherEntry.CONTENT_URI
+                : WeatherContract.WeatherEntry.UNCHANGED_URI;
+    }
+
+    /**
+     * Brings the current conditions of the locations with changed weather up to date.  Call
+     * inside the transaction that changed them; notifyWeatherChanges() tells observers.
+     */
+    private static void refreshChangedCurrent(SQLiteDatabase db, WeatherChangeSet changeSet) {
+        if (changeSet.isEmpty()) {
+            return;
+        }
+        SQLiteStatement refresh = db.compileStatement(sRefreshCurrentLocationIdSql);
+        try {
+            refresh.bindLong(1, WeatherContract.normalizeDate(System.currentTimeMillis()));
+            for (long locationId : changeSet.getChangedLocationIds()) {
+                refresh.bindLong(2, locationId);
+                refresh.executeInsert();
+            }
+        } finally {
+            refresh.close();
+        }
+    }
+
+    /**
+     * Rebuilds the current conditions of one location, or of all of them if locationSetting is
+     * null, from the weather and location tables.  A location with no weather left from today
+     * on loses its row.  Observers are left to the caller, once its transaction is over.
+     */
+    private static void refreshCurrent(SQLiteDatabase db, String locationSetting) {
+        String today = Long.toString(WeatherContract.normalizeDate(System.currentTimeMillis()));
+        db.beginTransaction();
+        try {
+            if (locationSetting == null) {
+                db.delete(WeatherContract.CurrentEntry.TABLE_NAME, null, null);
+                db.execSQL(sRefreshCurrentSql, new Object[]{today});
+            } else {
+                db.delete(WeatherContract.CurrentEntry.TABLE_NAME,
+                        WeatherContract.CurrentEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{locationSetting});
+                db.execSQL(sRefreshCurrentLocationSql, new Object[]{today, locationSetting});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Notifies now, or once the batch commits if this thread is inside applyBatch().  Either
+    // way the query cache is invalidated along with the notification.
+    private void notifyChange(Uri uri) {
+        BatchState state = mBatchState.get();
+        if (state != null) {
+            state.notifyUris.add(uri);
+        } else {
+            invalidateQueryCache(uri);
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Drops every URI that lies under another one in the collection: notifying a URI reaches
+     * the observers of everything below it anyway.
+     */
+    static List<Uri> coalesceNotifications(Collection<Uri> uris) {
+        List<Uri> coalesced = new ArrayList<Uri>();
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri other : uris) {
+                if (isAncestor(other, uri)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                coalesced.add(uri);
+            }
+        }
+        return coalesced;
+    }
+
+    private static boolean isAncestor(Uri ancestor, Uri uri) {
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() < segments.size()
+                && ancestor.getAuthority().equals(uri.getAuthority())
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+
+    /**
+     * Notifies the weather/[location]/[date] URI of every changed row.  Observers of the whole
+     * location (the forecast list) or of the weather table hear about it through the URI
+     * hierarchy; detail screens of other days don't.  Nothing is sent for an empty change set.
+     */
+    private void notifyWeatherChanges(SQLiteDatabase db, WeatherChangeSet changeSet) {
+        if (changeSet.isEmpty()) {
+            return;
+        }
+        // refreshChangedCurrent() went through the same locations.
+        notifyChange(WeatherContract.CurrentEntry.CONTENT_URI);
+        for (long locationId : changeSet.getChangedLocationIds()) {
+            String locationSetting = null;
+            Cursor locationCursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (locationCursor.moveToFirst()) {
+                    locationSetting = locationCursor.getString(0);
+                }
+            } finally {
+                locationCursor.close();
+            }
+
+            if (locationSetting == null) {
+                // We can't build a targeted URI for this one, so fall back to the whole table.
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            for (long date : changeSet.getChangedDates(locationId)) {
+                notifyChange(WeatherContract.WeatherEntry
+                        .buildWeatherLocationWithDate(locationSetting, date));
+            }
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        mQueryCache.invalidateAll();
+        LocationRegistry.invalidate();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -46,7 +46,7 @@ public class DataLayerListenerService extends WearableListenerService {
     public void onMessageReceived(MessageEvent messageEvent) {
         if(messageEvent.getPath().equals("/path/update")){
             Log.d(LOG_TAG, "Message received. Syncing now." +  messageEvent.getData().toString());
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncImmediately(this, false);
         }
     }
 
@@ -60,7 +60,7 @@ public class DataLayerListenerService extends WearableListenerService {
     public void onConnectedNodes(List<Node> connectedNodes) {
         if (!connectedNodes.isEmpty()) {
             Log.d(LOG_TAG, "syncing now");
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncImmediately(this, false);
         }
     }
 
@@ -68,7 +68,7 @@ public class DataLayerListenerService extends WearableListenerService {
     public void onPeerConnected(Node node) {
         super.onPeerConnected(node);
         Log.d(LOG_TAG, "sync through onpeerconnected");
-        SunshineSyncAdapter.syncImmediately(this);
+        SunshineSyncAdapter.syncImmediately(this, false);
     }
 
     @Override
@@ -103,7 +103,7 @@ public class DataLayerListenerService extends WearableListenerService {
                 String path = event.getDataItem().getUri().getPath();
                 Log.d(LOG_TAG, "path = " + path);
                 if (path.equals("/path/update")) {
-                    SunshineSyncAdapter.syncImmediately(this);
+                    SunshineSyncAdapter.syncImmediately(this, false);
                 }
             }
 
@@ -0,0 +1,29 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * One day of the OpenWeatherMap daily forecast, as read off the wire by
+ * {@link ForecastJsonParser}.  Values are kept as primitives so a sync never has to box them
+ * until they are handed to the ContentProvider.
+ */
+public final class DayForecast {
+    public final double pressure;
+    public final int humidity;
+    public final double windSpeed;
+    public final double windDirection;
+    public final double high;
+    public final double low;
+    public final String description;
+    public final int weatherId;
+
+    public DayForecast(double pressure, int humidity, double windSpeed, double windDirection,
+                       double high, double low, String description, int weatherId) {
+        this.pressure = pressure;
+        this.humidity = humidity;
+        this.windSpeed = windSpeed;
+        this.windDirection = windDirection;
+        this.high = high;
+        this.low = low;
+        this.description = description;
+        this.weatherId = weatherId;
+    }
+}
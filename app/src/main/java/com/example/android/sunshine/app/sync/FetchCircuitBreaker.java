@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Random;
+
+/**
+ * Keeps the sync adapter from hammering OpenWeatherMap while it is down.
+ *
+ * After {@link #FAILURE_THRESHOLD} failed fetches in a row the breaker opens, and every sync
+ * is skipped until the retry time.  The database keeps the last forecast, so the UI still has
+ * something to show.  Once the retry time has passed the breaker is half-open: the next sync
+ * fetches, and its outcome either closes the breaker or opens it again for twice as long, up to
+ * {@link #MAX_DELAY_MILLIS}.  The delays are jittered so a fleet of devices doesn't come back all
+ * at once.
+ *
+ * The sync adapter only counts fetches that failed while the device was online, and lets a sync
+ * the user asked for, or one for a location with no stored forecast, through even while the
+ * breaker is open: there is nothing else to show, and one fetch won't hurt the server.
+ *
+ * The state lives in its own preferences file, so it survives the process being killed.
+ */
+public class FetchCircuitBreaker {
+    private static final String PREFS_NAME = "fetch_circuit_breaker";
+
+    private static final String KEY_CONSECUTIVE_FAILURES = "consecutive_failures";
+    private static final String KEY_OPEN_UNTIL = "open_until";
+    private static final String KEY_TRIP_COUNT = "trip_count";
+    private static final String KEY_SUPPRESSED_COUNT = "suppressed_count";
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface BreakerState {}
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    public static final int FAILURE_THRESHOLD = 3;
+    public static final long BASE_DELAY_MILLIS = 60 * 1000;
+    public static final long MAX_DELAY_MILLIS = 6 * 60 * 60 * 1000;
+
+    // Fetches of several locations can report at once.
+    private static final Object sLock = new Object();
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom;
+
+    public FetchCircuitBreaker(Context context) {
+        this(context, new Random());
+    }
+
+    FetchCircuitBreaker(Context context, Random random) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mRandom = random;
+    }
+
+    /**
+     * Asks whether a fetch may go out now.  A refused fetch is counted.
+     * @param now the current time, in milliseconds since the epoch
+     */
+    public boolean allowRequest(long now) {
+        synchronized (sLock) {
+            if (getState(now) != STATE_OPEN) {
+                return true;
+            }
+            mPrefs.edit()
+                    .putInt(KEY_SUPPRESSED_COUNT, getSuppressedCount() + 1)
+                    .apply();
+            return false;
+        }
+    }
+
+    /**
+     * Records a fetch that reached a working server.  Closes the breaker.
+     */
+    public void recordSuccess() {
+        synchronized (sLock) {
+            if (getConsecutiveFailures() == 0 && getOpenUntil() == 0) {
+                return;
+            }
+            mPrefs.edit()
+                    .putInt(KEY_CONSECUTIVE_FAILURES, 0)
+                    .putLong(KEY_OPEN_UNTIL, 0)
+                    .apply();
+        }
+    }
+
+    /**
+     * Records a failed fetch, and opens the breaker if that was one too many.
+     * @param now the current time, in milliseconds since the epoch
+     * @return how long the breaker is now open for, in milliseconds, or 0 if it is closed
+     */
+    public long recordFailure(long now) {
+        synchronized (sLock) {
+            int failures = getConsecutiveFailures() + 1;
+            SharedPreferences.Editor editor = mPrefs.edit()
+                    .putInt(KEY_CONSECUTIVE_FAILURES, failures);
+            long delay = 0;
+            if (failures >= FAILURE_THRESHOLD) {
+                delay = computeDelay(failures - FAILURE_THRESHOLD, mRandom);
+                editor.putLong(KEY_OPEN_UNTIL, now + delay)
+                        .putInt(KEY_TRIP_COUNT, getTripCount() + 1);
+            }
+            editor.apply();
+            return delay;
+        }
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half of the delay is fixed, the other half is
+     * random, so retries spread out but never come back early.
+     * @param attempt how many times in a row the breaker opened before this one
+     */
+    static long computeDelay(int attempt, Random random) {
+        long delay = BASE_DELAY_MILLIS << Math.min(attempt, 30);
+        if (delay <= 0 || delay > MAX_DELAY_MILLIS) {
+            delay = MAX_DELAY_MILLIS;
+        }
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    @BreakerState
+    public int getState(long now) {
+        long openUntil = getOpenUntil();
+        if (openUntil == 0) {
+            return STATE_CLOSED;
+        }
+        return now < openUntil ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    public int getConsecutiveFailures() {
+        return mPrefs.getInt(KEY_CONSECUTIVE_FAILURES, 0);
+    }
+
+    /** @return when the next fetch is allowed, in milliseconds since the epoch, or 0 if closed */
+    public long getOpenUntil() {
+        return mPrefs.getLong(KEY_OPEN_UNTIL, 0);
+    }
+
+    /** @return how many times the breaker has opened */
+    public int getTripCount() {
+        return mPrefs.getInt(KEY_TRIP_COUNT, 0);
+    }
+
+    /** @return how many fetches were skipped because the breaker was open */
+    public int getSuppressedCount() {
+        return mPrefs.getInt(KEY_SUPPRESSED_COUNT, 0);
+    }
+
+    void reset() {
+        synchronized (sLock) {
+            mPrefs.edit().clear().commit();
+        }
+    }
+}
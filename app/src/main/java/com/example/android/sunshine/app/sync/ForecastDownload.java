@@ -0,0 +1,85 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The body of one forecast response, decompressed on the fly and decoded as UTF-8.
+ *
+ * Asking for gzip ourselves (rather than letting HttpURLConnection do it behind our back) means
+ * we unwrap the compression here and can count both the bytes that came over the radio and the
+ * bytes the parser actually saw.
+ */
+public class ForecastDownload implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String ENCODING_GZIP = "gzip";
+
+    private final CountingInputStream mWireStream;
+    private final CountingInputStream mDecodedStream;
+    private final Reader mReader;
+    private final boolean mCompressed;
+
+    /**
+     * Adds the request headers for a compressed response.  Must be called before connecting.
+     */
+    public static void prepareRequest(HttpURLConnection connection) {
+        connection.setRequestProperty("Accept-Encoding", ENCODING_GZIP);
+    }
+
+    /**
+     * Opens the body of a connected request.
+     * @return the download, or null if the connection has no body
+     */
+    public static ForecastDownload open(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        if (inputStream == null) {
+            return null;
+        }
+        boolean compressed = ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding());
+        return new ForecastDownload(inputStream, compressed);
+    }
+
+    ForecastDownload(InputStream wireStream, boolean compressed) throws IOException {
+        mCompressed = compressed;
+        mWireStream = new CountingInputStream(wireStream);
+        InputStream decoded = compressed ? new GZIPInputStream(mWireStream) : mWireStream;
+        mDecodedStream = compressed ? new CountingInputStream(decoded) : mWireStream;
+        mReader = new BufferedReader(new InputStreamReader(mDecodedStream, UTF_8));
+    }
+
+    /** @return a UTF-8 reader over the decompressed body */
+    public Reader getReader() {
+        return mReader;
+    }
+
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /** @return the number of bytes read off the connection so far */
+    public long getWireBytes() {
+        return mWireStream.getCount();
+    }
+
+    /** @return the time spent waiting on the connection for bytes so far, in nanoseconds */
+    public long getWireReadNanos() {
+        return mWireStream.getReadNanos();
+    }
+
+    /** @return the number of bytes handed to the decoder so far, after decompression */
+    public long getDecodedBytes() {
+        return mDecodedStream.getCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the OpenWeatherMap daily forecast response.
+ *
+ * The response is read token by token with a {@link JsonReader}, so the body is never held as a
+ * String and no org.json object tree is built.  Each day is turned into a {@link DayForecast} as
+ * soon as its object has been read.
+ *
+ * Transport problems surface as {@link IOException}; a body that is not the JSON we expect
+ * surfaces as {@link JSONException}, matching the errors the old org.json path used to throw.
+ */
+public class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Everything the sync needs from one forecast response.
+     */
+    public static class ForecastResponse {
+        /** True when the stream held no JSON at all. */
+        public boolean empty;
+        /** The "cod" value, or {@link HttpURLConnection#HTTP_OK} when the server sent none. */
+        public int messageCode = HttpURLConnection.HTTP_OK;
+        public boolean hasMessageCode;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        public boolean hasCity;
+        public boolean hasList;
+        public final List<DayForecast> days = new ArrayList<DayForecast>(16);
+    }
+
+    /**
+     * Parses a complete forecast response.  The caller owns the reader and must close it.
+     */
+    public static ForecastResponse parse(Reader in) throws IOException, JSONException {
+        ForecastResponse response = new ForecastResponse();
+        JsonReader reader = new JsonReader(in);
+        try {
+            try {
+                reader.peek();
+            } catch (EOFException e) {
+                // Stream was empty.  No point in parsing.
+                response.empty = true;
+                return response;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    response.messageCode = reader.nextInt();
+                    response.hasMessageCode = true;
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, response);
+                } else if (OWM_LIST.equals(name)) {
+                    response.hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        response.days.add(readDay(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | EOFException e) {
+            // A truncated or garbled body is the server's fault, not the network's.
+            throw asJsonException(e);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports a value of the wrong type this way.
+            throw asJsonException(e);
+        }
+
+        if (response.hasMessageCode && response.messageCode != HttpURLConnection.HTTP_OK) {
+            // Error responses carry no forecast; the caller only needs the code.
+            return response;
+        }
+        if (!response.hasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!response.hasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return response;
+    }
+
+    private static void readCity(JsonReader reader, ForecastResponse response)
+            throws IOException, JSONException {
+        String cityName = null;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new JSONException("No value for " + OWM_CITY_NAME);
+        }
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            throw new JSONException("No value for " + OWM_COORD);
+        }
+        response.cityName = cityName;
+        response.cityLatitude = lat;
+        response.cityLongitude = lon;
+        response.hasCity = true;
+    }
+
+    private static DayForecast readDay(JsonReader reader) throws IOException, JSONException {
+        double pressure = Double.NaN;
+        int humidity = 0;
+        boolean hasHumidity = false;
+        double windSpeed = Double.NaN;
+        double windDirection = Double.NaN;
+        double high = Double.NaN;
+        double low = Double.NaN;
+        String description = null;
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = reader.nextInt();
+                hasHumidity = true;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                            hasWeatherId = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (Double.isNaN(pressure) || !hasHumidity || Double.isNaN(windSpeed)
+                || Double.isNaN(windDirection)) {
+            throw new JSONException("Incomplete day in " + OWM_LIST);
+        }
+        if (Double.isNaN(high) || Double.isNaN(low)) {
+            throw new JSONException("No value for " + OWM_TEMPERATURE);
+        }
+        if (description == null || !hasWeatherId) {
+            throw new JSONException("No value for " + OWM_WEATHER);
+        }
+        return new DayForecast(pressure, humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+
+    private static JSONException asJsonException(Exception e) {
+        JSONException jsonException = new JSONException(e.getMessage());
+        jsonException.initCause(e);
+        return jsonException;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the HTTP cache validators (ETag / Last-Modified) of the last forecast we stored for
+ * each location query, so the next sync can ask OpenWeatherMap for the forecast conditionally.
+ * Also keeps the running count of syncs that were answered with 304 Not Modified.
+ *
+ * This lives in its own preferences file rather than the default one, so the many validator
+ * keys never show up in the settings listeners.
+ */
+public class ForecastValidatorStore {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG_PREFIX = "etag:";
+    private static final String KEY_LAST_MODIFIED_PREFIX = "last_modified:";
+    private static final String KEY_FETCH_COUNT = "fetch_count";
+    private static final String KEY_NOT_MODIFIED_COUNT = "not_modified_count";
+
+    // Fetches for several locations can finish at once; keep the counter updates from racing.
+    private static final Object sCountLock = new Object();
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastValidatorStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public String getETag(String locationQuery) {
+        return mPrefs.getString(KEY_ETAG_PREFIX + locationQuery, null);
+    }
+
+    public String getLastModified(String locationQuery) {
+        return mPrefs.getString(KEY_LAST_MODIFIED_PREFIX + locationQuery, null);
+    }
+
+    /**
+     * Stores the validators of a response whose forecast has been written to the database.
+     * Either value may be null if the server did not send it.
+     */
+    public void save(String locationQuery, String eTag, String lastModified) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (eTag != null) {
+            editor.putString(KEY_ETAG_PREFIX + locationQuery, eTag);
+        } else {
+            editor.remove(KEY_ETAG_PREFIX + locationQuery);
+        }
+        if (lastModified != null) {
+            editor.putString(KEY_LAST_MODIFIED_PREFIX + locationQuery, lastModified);
+        } else {
+            editor.remove(KEY_LAST_MODIFIED_PREFIX + locationQuery);
+        }
+        editor.apply();
+    }
+
+    public void clear(String locationQuery) {
+        mPrefs.edit()
+                .remove(KEY_ETAG_PREFIX + locationQuery)
+                .remove(KEY_LAST_MODIFIED_PREFIX + locationQuery)
+                .apply();
+    }
+
+    /**
+     * Counts one completed round-trip to the forecast server.
+     * @param notModified true if the server answered 304 and the sync was short-circuited
+     */
+    public void recordFetch(boolean notModified) {
+        synchronized (sCountLock) {
+            SharedPreferences.Editor editor = mPrefs.edit();
+            editor.putInt(KEY_FETCH_COUNT, getFetchCount() + 1);
+            if (notModified) {
+                editor.putInt(KEY_NOT_MODIFIED_COUNT, getNotModifiedCount() + 1);
+            }
+            editor.apply();
+        }
+    }
+
+    /** @return the number of syncs that reached the forecast server */
+    public int getFetchCount() {
+        return mPrefs.getInt(KEY_FETCH_COUNT, 0);
+    }
+
+    /** @return the number of those syncs that were short-circuited by a 304 */
+    public int getNotModifiedCount() {
+        return mPrefs.getInt(KEY_NOT_MODIFIED_COUNT, 0);
+    }
+}
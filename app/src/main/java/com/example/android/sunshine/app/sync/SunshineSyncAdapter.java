@@ -7,11 +7,14 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,10 +25,10 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
@@ -35,41 +38,32 @@ import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationRegistry;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallbacks;
-import com.google.android.gms.common.api.Status;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Random;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 /*
         Credit to: https://developer.android.com/ for data layer code
         Credit to: Udacity for Advanced Android Sample App Code
  */
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
-        implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener
 {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
@@ -83,30 +77,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     private int mIcon;
 
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
-
-
-    private static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
-
-
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -117,123 +87,393 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
-    GoogleApiClient mGoogleApiClient;
+    // Extra for onPerformSync: refresh every stored location rather than just the preferred one.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS =
+            "com.example.android.sunshine.app.SYNC_EXTRAS_ALL_LOCATIONS";
 
+    // What storeWeather() returns when the transaction failed.
+    private static final int STORE_FAILED = -1;
 
+    // How many days of forecast each fetch asks for.
+    private static final int FORECAST_DAYS = 14;
 
+    // An all-locations sync downloads at most this many forecasts at the same time.
+    private static final int MAX_CONCURRENT_FETCHES = 4;
 
+    private static final ThreadPoolExecutor sFetchExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
-    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
-        super(context, autoInitialize);
+    static {
+        // Don't keep idle download threads around between syncs.
+        sFetchExecutor.allowCoreThreadTimeOut(true);
+    }
 
+    private static final String[] SYNC_LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+    private static final int INDEX_COORD_LAT = 2;
+    private static final int INDEX_COORD_LONG = 3;
+
+    // Where forecasts are fetched from.  Comes from the build config, but tests and benchmarks
+    // point it at a local stand-in server.
+    private static volatile String sForecastBaseUrl = BuildConfig.FORECAST_BASE_URL;
 
+    private final SyncPublisher mPublisher;
 
-        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-        mGoogleApiClient.connect();
+    public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        super(context, autoInitialize);
 
+        mPublisher = new SyncPublisher()
+                .addConsumer("widgets", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        updateWidgets();
+                    }
+                })
+                .addConsumer("muzei", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        updateMuzei();
+                    }
+                })
+                .addConsumer("notification", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        notifyWeather(today);
+                    }
+                })
+                .addConsumer("wear", new SyncPublisher.Consumer() {
+                    @Override
+                    public void publish(TodayForecast today) {
+                        WatchForecastSender.send(getContext(), today);
+                    }
+                });
     }
 
     @Override
-    public void onConnected(@Nullable Bundle bundle) {
-        Log.d(LOG_TAG, "Google API Client was connected");
-    }
+    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+        Log.d(LOG_TAG, "Starting sync");
 
+        // Recorded up front, so failed syncs show up in the stats as well.
+        SyncTimings timings = new SyncTimings();
+        SyncStats.record(timings);
+        long syncStart = SyncTimings.start();
+        try {
+            FetchCircuitBreaker breaker = new FetchCircuitBreaker(getContext());
+            // The user asked for this one, or there is nothing stored to show instead: fetch
+            // whatever the breaker says.
+            boolean manual = extras != null
+                    && extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+            if (!manual && hasStoredForecast(Utility.getPreferredLocation(getContext()))
+                    && !breaker.allowRequest(System.currentTimeMillis())) {
+                // The server has been failing.  Keep showing what we have, and don't come back
+                // before the breaker's retry time.
+                setDelayUntil(syncResult, breaker.getOpenUntil() - System.currentTimeMillis());
+                Log.d(LOG_TAG, "Circuit breaker open, skipping fetch ("
+                        + breaker.getSuppressedCount() + " skipped so far)");
+                return;
+            }
 
+            boolean failed;
+            if (extras != null && extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                failed = syncAllLocations(timings, syncResult, manual);
+            } else {
+                failed = syncPreferredLocation(timings, syncResult, manual);
+            }
 
-    private void sendDataToWatch(){
-        // sends data to watch using the Google data layer API
+            if (!failed) {
+                breaker.recordSuccess();
+            } else if (!isNetworkAvailable()) {
+                // The fetch never got as far as the server, so it says nothing about it.
+                Log.d(LOG_TAG, "Fetch failed while offline, not counted by the circuit breaker");
+            } else {
+                long openMillis = breaker.recordFailure(System.currentTimeMillis());
+                if (openMillis > 0) {
+                    setDelayUntil(syncResult, openMillis);
+                    Log.d(LOG_TAG, "Circuit breaker open for " + openMillis / 1000 + " s after "
+                            + breaker.getConsecutiveFailures() + " failed fetches");
+                }
+            }
+        } finally {
+            timings.stop(SyncTimings.STAGE_TOTAL, syncStart);
+            Log.d(LOG_TAG, "Sync timings (ms): " + timings);
+        }
+    }
 
-        Log.d(LOG_TAG, "called sendDataToWatch");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = getContext().getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        if (cursor == null || !cursor.moveToFirst())
-            return;
+    /**
+     * Tells the sync framework not to sync again for a while.  Despite what the docs say,
+     * since Lollipop the framework reads delayUntil as seconds from now.
+     */
+    private static void setDelayUntil(SyncResult syncResult, long delayMillis) {
+        syncResult.delayUntil = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(delayMillis));
+    }
 
+    /**
+     * Counts a fetch in the sync stats, so the framework backs off soft errors by itself and
+     * doesn't retry hard ones.
+     * @return true if the fetch failed because of the server
+     */
+    private static boolean countFetchResult(FetchResult result, SyncResult syncResult) {
+        switch (result.status) {
+            case LOCATION_STATUS_SERVER_DOWN:
+                syncResult.stats.numIoExceptions++;
+                return true;
+            case LOCATION_STATUS_SERVER_INVALID:
+                syncResult.stats.numParseExceptions++;
+                return true;
+            default:
+                return false;
+        }
+    }
 
-        int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-        String high = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MAX_TEMP));
-        String low = Utility.formatTemperature(getContext(), cursor.getDouble(INDEX_MIN_TEMP));
+    /**
+     * @param requested true if someone asked for this sync, so the watch gets the forecast even
+     *                  if nothing changed
+     * @return true if the fetch failed because of the server
+     */
+    private boolean syncPreferredLocation(SyncTimings timings, SyncResult syncResult,
+                                          boolean requested) {
+        // We no longer need just the location String, but also potentially the latitude and
+        // longitude, in case we are syncing based on a new Place Picker API result.
+        Context context = getContext();
+        // One snapshot, so the location and its coordinates can't come from different edits.
+        SettingsSnapshot settings = SettingsSnapshot.get(context);
+        String locationQuery = settings.getLocation();
+        FetchResult result = fetchForecast(locationQuery,
+                settings.isLocationLatLonAvailable(),
+                settings.getLocationLatitude(),
+                settings.getLocationLongitude(),
+                timings);
+        boolean failed = countFetchResult(result, syncResult);
+
+        if (result.forecast == null) {
+            // Either nothing changed since the last sync, or there is nothing we can store.
+            if (result.status == LOCATION_STATUS_OK) {
+                new SyncRequestCoalescer(context).recordSync(locationQuery,
+                        System.currentTimeMillis());
+                if (requested) {
+                    // A watch face that asked for this sync still needs the forecast.
+                    WatchForecastSender.sendStoredForecast(context);
+                }
+            } else {
+                // The validators of the last good fetch don't describe what the server sent.
+                saveValidators(result, false);
+            }
+            setLocationStatus(context, result.status);
+            return failed;
+        }
 
-//      makeWeatherUnique is added to the weather data in order to get unique values each time it is called.
-//      This value is subtracted in the myWatchFace class
-        Random random = new Random();
-        int  makeWeatherUnique = random.nextInt(1000) + 1;
+        int julianStartDay = getJulianStartDay();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<PendingLocation> pendingLocations = new ArrayList<PendingLocation>();
+        addWeatherOperations(operations, pendingLocations, locationQuery, result.forecast,
+                julianStartDay);
+        int changed = storeWeather(operations, pendingLocations, julianStartDay, timings,
+                syncResult, requested);
+        if (changed == STORE_FAILED) {
+            // Nothing was written, so the next sync has to fetch the whole forecast again.
+            saveValidators(result, false);
+            setLocationStatus(context, LOCATION_STATUS_UNKNOWN);
+            return failed;
+        }
+        int stored = result.forecast.days.size();
+
+        Log.d(LOG_TAG, "Sync Complete. " + stored + " Stored, " + changed + " Changed");
+        new SyncRequestCoalescer(context).recordSync(locationQuery, System.currentTimeMillis());
+        setLocationStatus(context, LOCATION_STATUS_OK);
+        saveValidators(result, stored > 0);
+        syncResult.stats.numEntries += stored;
+        return failed;
+    }
 
+    /**
+     * Refreshes every row of the location table in one pass.  The downloads run concurrently on
+     * {@link #sFetchExecutor}, and all of the resulting rows are written in a single bulkInsert
+     * transaction once the slowest download has finished.  Each location gets its own status.
+     *
+     * @param requested true if someone asked for this sync, so the watch gets the forecast even
+     *                  if nothing changed
+     * @return true if every fetch failed because of the server
+     */
+    private boolean syncAllLocations(final SyncTimings timings, SyncResult syncResult,
+                                     boolean requested) {
+        Context context = getContext();
+        long startTime = SystemClock.elapsedRealtime();
+        final SettingsSnapshot settings = SettingsSnapshot.get(context);
+        final String preferredLocation = settings.getLocation();
 
-        Bitmap iconBitmap = BitmapFactory.decodeResource(getContext().getResources(), Utility.getArtResourceForWeatherCondition(weatherId));
-        String highTemperature = high + makeWeatherUnique;
-        String lowTemperature = low + makeWeatherUnique;
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/watchface-temp-update");
-        putDataMapRequest.getDataMap().putInt("makeWeatherUnique", makeWeatherUnique);
-        putDataMapRequest.getDataMap().putString("high-temp", highTemperature);
-        putDataMapRequest.getDataMap().putString("low-temp", lowTemperature);
-        putDataMapRequest.getDataMap().putAsset("icon", createAssetFromBitmap(iconBitmap));
-        putDataMapRequest.getDataMap().putLong("time", System.currentTimeMillis());
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-        request.setUrgent();
+        List<Callable<FetchResult>> fetches = new ArrayList<Callable<FetchResult>>();
 
-        Log.d(LOG_TAG, "Attempt to send request with high = " + highTemperature + " and low = " + lowTemperature + " makeWeatherUnique = " + makeWeatherUnique );
-    Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallbacks<DataApi.DataItemResult>() {
-            @Override
-            public void onSuccess(DataApi.DataItemResult dataItemResult) {
-                Log.d(LOG_TAG, "DataItem sent successfully");
-                mGoogleApiClient.disconnect();
+        Cursor locationCursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                SYNC_LOCATION_PROJECTION,
+                null,
+                null,
+                null);
+        if (locationCursor != null) {
+            try {
+                while (locationCursor.moveToNext()) {
+                    final String locationSetting = locationCursor.getString(INDEX_LOCATION_SETTING);
+                    // We have the whole table in hand, so refresh the registry while we're here.
+                    LocationRegistry.put(locationSetting, locationCursor.getLong(INDEX_LOCATION_ID),
+                            locationCursor.getDouble(INDEX_COORD_LAT),
+                            locationCursor.getDouble(INDEX_COORD_LONG));
+                    if (locationSetting.equals(preferredLocation)) {
+                        // Handled below, so it is fetched exactly like a single-location sync.
+                        continue;
+                    }
+                    // Every stored row carries the coordinates OpenWeatherMap resolved for it, so
+                    // query by those rather than hoping the free-form setting still resolves.
+                    final float lat = (float) locationCursor.getDouble(INDEX_COORD_LAT);
+                    final float lon = (float) locationCursor.getDouble(INDEX_COORD_LONG);
+                    fetches.add(new Callable<FetchResult>() {
+                        @Override
+                        public FetchResult call() {
+                            return fetchForecast(locationSetting, true, lat, lon, timings);
+                        }
+                    });
+                }
+            } finally {
+                locationCursor.close();
             }
+        }
 
+        fetches.add(new Callable<FetchResult>() {
             @Override
-            public void onFailure(Status status) {
-                Log.d(LOG_TAG, "DataItem Failed to send");
-                mGoogleApiClient.disconnect();
+            public FetchResult call() {
+                return fetchForecast(preferredLocation, settings.isLocationLatLonAvailable(),
+                        settings.getLocationLatitude(), settings.getLocationLongitude(), timings);
             }
         });
 
-    }
+        List<Future<FetchResult>> futures;
+        try {
+            futures = sFetchExecutor.invokeAll(fetches);
+        } catch (InterruptedException e) {
+            Log.e(LOG_TAG, "Interrupted while syncing all locations", e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
 
+        SyncRequestCoalescer coalescer = new SyncRequestCoalescer(context);
+        int julianStartDay = getJulianStartDay();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<PendingLocation> pendingLocations = new ArrayList<PendingLocation>();
+        int stored = 0;
+        List<FetchResult> storedResults = new ArrayList<FetchResult>();
+        boolean allFailed = true;
+        for (int i = 0; i < futures.size(); i++) {
+            FetchResult result;
+            try {
+                result = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching forecast", e);
+                syncResult.stats.numIoExceptions++;
+                continue;
+            }
 
-    @Override
-    public void onConnectionSuspended(int i) {
-        Log.d(LOG_TAG, "Connection to Google API client was suspended");
-    }
+            if (!countFetchResult(result, syncResult)) {
+                allFailed = false;
+            }
+            if (result.forecast == null) {
+                // Either nothing changed since the last sync, or there is nothing to store.
+                setLocationStatus(context, result.locationSetting, result.status);
+                if (result.status == LOCATION_STATUS_OK) {
+                    coalescer.recordSync(result.locationSetting, System.currentTimeMillis());
+                } else {
+                    saveValidators(result, false);
+                }
+                continue;
+            }
 
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
-        Log.d(LOG_TAG, "connection to Google API client has failed");
+            addWeatherOperations(operations, pendingLocations, result.locationSetting,
+                    result.forecast, julianStartDay);
+            stored += result.forecast.days.size();
+            storedResults.add(result);
+        }
+
+        // The rest only get their status once we know whether they made it to the database.
+        int changed = storeWeather(operations, pendingLocations, julianStartDay, timings,
+                syncResult, requested);
+        boolean storeFailed = changed == STORE_FAILED;
+        for (FetchResult result : storedResults) {
+            if (storeFailed) {
+                setLocationStatus(context, result.locationSetting, LOCATION_STATUS_UNKNOWN);
+                saveValidators(result, false);
+            } else {
+                setLocationStatus(context, result.locationSetting, LOCATION_STATUS_OK);
+                coalescer.recordSync(result.locationSetting, System.currentTimeMillis());
+                saveValidators(result, true);
+            }
+        }
+        if (storeFailed) {
+            Log.d(LOG_TAG, "Sync of " + fetches.size() + " locations failed to store "
+                    + stored + " rows");
+            return allFailed;
+        }
+
+        syncResult.stats.numEntries += stored;
+
+        Log.d(LOG_TAG, "Sync Complete. " + fetches.size() + " locations, " + stored
+                + " Stored, " + changed + " Changed in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+        return allFailed;
     }
 
-    @Override
-    public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
+    /**
+     * The outcome of fetching one location's forecast.  Fetching never writes to the weather
+     * tables, so several fetches can safely run at once.
+     */
+    static class FetchResult {
+        final String locationSetting;
+        String validatorKey;
+        @LocationStatus int status = LOCATION_STATUS_UNKNOWN;
+        // Set only when the forecast is new and valid, i.e. when there is something to store.
+        ForecastJsonParser.ForecastResponse forecast;
+        String eTag;
+        String lastModified;
+
+        FetchResult(String locationSetting) {
+            this.locationSetting = locationSetting;
+        }
+    }
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
+    /**
+     * Downloads and parses the forecast for one location.
+     *
+     * @param locationQuery the location setting the forecast will be stored under
+     * @param useLatLon true to query by coordinates instead of by the location string
+     * @param timings where to add the connect, TTFB, download and parse times
+     */
+    FetchResult fetchForecast(String locationQuery, boolean useLatLon, float latitude, float longitude,
+                              SyncTimings timings) {
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        FetchResult result = new FetchResult(locationQuery);
 
         // These two need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        ForecastDownload download = null;
 
         String format = "json";
         String units = "metric";
-        int numDays = 14;
+        int numDays = FORECAST_DAYS;
 
         try {
             // Construct the URL for the OpenWeatherMap query
             // Possible parameters are avaiable at OWM's forecast API page, at
             // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+            final String FORECAST_BASE_URL = sForecastBaseUrl;
             final String QUERY_PARAM = "q";
             final String LAT_PARAM = "lat";
             final String LON_PARAM = "lon";
@@ -250,9 +490,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
+            if (useLatLon) {
+                uriBuilder.appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
+                        .appendQueryParameter(LON_PARAM, String.valueOf(longitude));
             } else {
                 uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
             }
@@ -265,235 +505,347 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
 
             URL url = new URL(builtUri.toString());
 
+            // The validators are keyed by the query we send, which is either the location
+            // string or the Place Picker lat/lon.
+            result.validatorKey = builtUri.getEncodedQuery();
+            ForecastValidatorStore validatorStore = new ForecastValidatorStore(context);
+
             // Create the request to OpenWeatherMap, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
+            ForecastDownload.prepareRequest(urlConnection);
+
+            // Only ask for a conditional response if the forecast those validators describe is
+            // still in the database; otherwise a 304 would leave us with nothing to show.
+            if (hasForecastForToday(locationQuery)) {
+                String eTag = validatorStore.getETag(result.validatorKey);
+                String lastModified = validatorStore.getLastModified(result.validatorKey);
+                if (eTag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", eTag);
+                }
+                if (lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            long stageStart = SyncTimings.start();
             urlConnection.connect();
+            timings.stop(SyncTimings.STAGE_CONNECT, stageStart);
+
+            stageStart = SyncTimings.start();
+            int responseCode = urlConnection.getResponseCode();
+            timings.stop(SyncTimings.STAGE_TTFB, stageStart);
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed since the last sync: skip the parse, the database writes and
+                // the widget/Muzei/notification fan-out.  Only a requested sync still feeds the
+                // watch.
+                validatorStore.recordFetch(true);
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified ("
+                        + validatorStore.getNotModifiedCount() + " of "
+                        + validatorStore.getFetchCount() + " syncs short-circuited)");
+                result.status = LOCATION_STATUS_OK;
+                return result;
+            }
+            validatorStore.recordFetch(false);
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
+            // Parse straight off the (decompressed) input stream instead of buffering the body
+            // into a String
+            download = ForecastDownload.open(urlConnection);
+            if (download == null) {
                 // Nothing to do.
-                return;
+                return result;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            // The parser pulls the body off the socket as it goes, so the time spent waiting on
+            // the socket is the download and the rest is the parse.
+            long parseStart = SyncTimings.start();
+            ForecastJsonParser.ForecastResponse forecast =
+                    ForecastJsonParser.parse(download.getReader());
+            long parseNanos = System.nanoTime() - parseStart;
+            timings.addNanos(SyncTimings.STAGE_DOWNLOAD, download.getWireReadNanos());
+            timings.addNanos(SyncTimings.STAGE_PARSE, parseNanos - download.getWireReadNanos());
+            Log.d(LOG_TAG, "Forecast transfer: " + download.getWireBytes() + " bytes on the wire, "
+                    + download.getDecodedBytes() + " bytes decoded"
+                    + (download.isCompressed() ? " (gzip)" : " (identity)"));
+
+            if (forecast.empty) {
+                // Stream was empty.  No point in parsing.
+                result.status = LOCATION_STATUS_SERVER_DOWN;
+                return result;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // do we have an error?
+            switch (forecast.messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = LOCATION_STATUS_INVALID;
+                    return result;
+                default:
+                    result.status = LOCATION_STATUS_SERVER_DOWN;
+                    return result;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            result.status = LOCATION_STATUS_OK;
+            result.forecast = forecast;
+            result.eTag = urlConnection.getHeaderField("ETag");
+            result.lastModified = urlConnection.getHeaderField("Last-Modified");
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            result.status = LOCATION_STATUS_SERVER_DOWN;
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            result.status = LOCATION_STATUS_SERVER_INVALID;
         } finally {
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (download != null) {
                 try {
-                    reader.close();
+                    download.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
         }
-        return;
+        return result;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Remembers the validators of a fetch once its forecast is in the database, or forgets them
+     * if nothing was stored.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+    private void saveValidators(FetchResult result, boolean stored) {
+        if (result.validatorKey == null) {
+            return;
+        }
+        ForecastValidatorStore validatorStore = new ForecastValidatorStore(getContext());
+        if (stored) {
+            validatorStore.save(result.validatorKey, result.eTag, result.lastModified);
+        } else {
+            validatorStore.clear(result.validatorKey);
+        }
+    }
 
-        // These are the names of the JSON objects that need to be extracted.
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being
+     * asked for, which means that we need to know the GMT offset to translate this data
+     * properly.
+     *
+     * Since this data is also sent in-order and the first day is always the
+     * current day, we're going to take advantage of that to get a nice
+     * normalized UTC date for all of our weather.
+     *
+     * @return the julian day of the first day of a forecast fetched now
+     */
+    private static int getJulianStartDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+    /**
+     * A location written by the provider's upsert in a batch, to be registered with the ID its
+     * operation comes back with once the batch has committed.
+     */
+    private static class PendingLocation {
+        final String locationSetting;
+        final int operationIndex;
+        final double latitude;
+        final double longitude;
+
+        PendingLocation(String locationSetting, int operationIndex, double latitude,
+                        double longitude) {
+            this.locationSetting = locationSetting;
+            this.operationIndex = operationIndex;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+    /**
+     * Adds the operations that store one location's forecast: the location itself, unless the
+     * {@link LocationRegistry} already has it with the coordinates OpenWeatherMap just sent,
+     * then a row per day.  The provider upserts the location, so a stored one keeps its ID and
+     * only has its coordinates updated.
+     *
+     * @param pendingLocations gets the location if it is written
+     */
+    private static void addWeatherOperations(ArrayList<ContentProviderOperation> operations,
+                                             List<PendingLocation> pendingLocations,
+                                             String locationSetting,
+                                             ForecastJsonParser.ForecastResponse forecast,
+                                             int julianStartDay) {
+        LocationRegistry.Entry location = LocationRegistry.get(locationSetting);
+        int locationIndex = -1;
+        if (location == null
+                || !location.hasCoordinates(forecast.cityLatitude, forecast.cityLongitude)) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+
+            locationIndex = operations.size();
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build());
+            pendingLocations.add(new PendingLocation(locationSetting, locationIndex,
+                    forecast.cityLatitude, forecast.cityLongitude));
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        for (int i = 0; i < forecast.days.size(); i++) {
+            DayForecast day = forecast.days.get(i);
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            long dateTime = dayTime.setJulianDay(julianStartDay + i);
 
-        final String OWM_MESSAGE_CODE = "cod";
+            ContentValues weatherValues = new ContentValues();
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, day.humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, day.pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day.windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day.windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, day.high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, day.low);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, day.description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, day.weatherId);
 
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues);
+            if (locationIndex == -1) {
+                builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, location.id);
+            } else {
+                // The ID the location upsert above comes back with.
+                builder.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        locationIndex);
             }
+            operations.add(builder.build());
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * Writes the new locations and weather rows and archives old ones, all in one transaction, and
+     * if that changed anything, lets everything that shows the weather know about it.  If nothing
+     * changed but someone asked for the sync, the watch still gets the forecast.
+     *
+     * @param operations the inserts from {@link #addWeatherOperations}; the archiving is added here
+     * @param pendingLocations the locations among the operations, registered if they commit
+     * @param requested true if someone asked for this sync
+     * @return the number of weather rows that were inserted or actually changed, or
+     * {@link #STORE_FAILED} if the transaction failed and nothing was written
+     */
+    private int storeWeather(ArrayList<ContentProviderOperation> operations,
+                             List<PendingLocation> pendingLocations, int julianStartDay,
+                             SyncTimings timings, SyncResult syncResult,
+                             boolean requested) {
+        if (operations.isEmpty()) {
+            if (requested) {
+                WatchForecastSender.sendStoredForecast(getContext());
+            }
+            return 0;
+        }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // move old data to the archive, so the forecast queries don't wade through history
+        Time dayTime = new Time();
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildWeatherArchiving())
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                .build());
 
-                cVVector.add(weatherValues);
+        ContentProviderResult[] results;
+        long stageStart = SyncTimings.start();
+        try {
+            results = getContext().getContentResolver()
+                    .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing the forecast", e);
+            syncResult.databaseError = true;
+            return STORE_FAILED;
+        } finally {
+            timings.stop(SyncTimings.STAGE_INSERT, stageStart);
+        }
+        for (PendingLocation location : pendingLocations) {
+            LocationRegistry.put(location.locationSetting,
+                    ContentUris.parseId(results[location.operationIndex].uri),
+                    location.latitude, location.longitude);
+        }
 
+        // The provider answers a weather insert with the weather URI if it changed anything,
+        // and with WeatherEntry.UNCHANGED_URI if the row was already there as it is.
+        int changed = 0;
+        for (ContentProviderResult result : results) {
+            if (WeatherContract.WeatherEntry.CONTENT_URI.equals(result.uri)) {
+                changed++;
             }
+        }
+        int archived = results[results.length - 1].count;
+
+        // An identical forecast leaves the widgets, Muzei and the notification showing the right
+        // thing.  A watch face that asked for a sync may have nothing yet, though.
+        if (changed > 0 || archived > 0) {
+            // Read today's forecast once; the consumers run off the sync thread.
+            mPublisher.publish(TodayForecast.query(getContext(),
+                    Utility.getPreferredLocation(getContext())), timings);
+        } else if (requested) {
+            WatchForecastSender.sendStoredForecast(getContext());
+        }
+        return changed;
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                sendDataToWatch();
+    /**
+     * @return true if the database holds a forecast for the given location from today on
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
 
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+    /**
+     * @return true if the device has a network to fetch over
+     */
+    boolean isNetworkAvailable() {
+        return Utility.isNetworkAvailable(getContext());
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * @return true if the database already holds today's forecast for the given location
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherUri,
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
         }
     }
 
@@ -515,191 +867,153 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(TodayForecast today) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
+        if (SettingsSnapshot.get(context).isNotificationsEnabled()) {
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
             String lastNotificationKey = context.getString(R.string.pref_last_notification);
             long lastSync = prefs.getLong(lastNotificationKey, 0);
 
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+            if (today != null && System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    mIcon = artResourceId;
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                int weatherId = today.weatherId;
+                double high = today.high;
+                double low = today.low;
+                String desc = today.description;
+
+                int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                Resources resources = context.getResources();
+                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                mIcon = artResourceId;
+                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+
+                // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                // Prior to that, we use a fixed size
+                @SuppressLint("InlinedApi")
+                int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                @SuppressLint("InlinedApi")
+                int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                        ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                        : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                // Retrieve the large icon
+                Bitmap largeIcon;
+                try {
+                    largeIcon = Glide.with(context)
+                            .load(artUrl)
+                            .asBitmap()
+                            .error(artResourceId)
+                            .fitCenter()
+                            .into(largeIconWidth, largeIconHeight).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                 }
-                cursor.close();
+                String title = context.getString(R.string.app_name);
+
+                // Define the text of the forecast.
+                String contentText = String.format(context.getString(R.string.format_notification),
+                        desc,
+                        Utility.formatTemperature(context, high),
+                        Utility.formatTemperature(context, low));
+
+                // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                // notifications.  Just throw in some data.
+                NotificationCompat.Builder mBuilder =
+                        new NotificationCompat.Builder(getContext())
+                                .setColor(resources.getColor(R.color.primary_light))
+                                .setSmallIcon(iconId)
+                                .setLargeIcon(largeIcon)
+                                .setContentTitle(title)
+                                .setContentText(contentText);
+
+                // Make something interesting happen when the user clicks on the notification.
+                // In this case, opening the app is sufficient.
+                Intent resultIntent = new Intent(context, MainActivity.class);
+
+                // The stack builder object will contain an artificial back stack for the
+                // started Activity.
+                // This ensures that navigating backward from the Activity leads out of
+                // your application to the Home screen.
+                TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                stackBuilder.addNextIntent(resultIntent);
+                PendingIntent resultPendingIntent =
+                        stackBuilder.getPendingIntent(
+                                0,
+                                PendingIntent.FLAG_UPDATE_CURRENT
+                        );
+                mBuilder.setContentIntent(resultPendingIntent);
+
+                NotificationManager mNotificationManager =
+                        (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+                // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+
+                //refreshing last sync
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                editor.commit();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
-    /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution.  The periodic sync
+     * refreshes every stored location, not just the preferred one.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // Periodic syncs are told apart by their extras, so drop the preferred-location-only
+        // one earlier versions scheduled.
+        ContentResolver.removePeriodicSync(account, authority, new Bundle());
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless the preferred location
+     * just synced
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, true);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately
+     * @param context The context used to access the account service
+     * @param checkFreshness false when the user or the watch asked for the sync, so it happens
+     *                       even if the preferred location just synced
+     */
+    public static void syncImmediately(Context context, boolean checkFreshness) {
+        // Bursts of requests (a watch reconnecting, say) collapse into one sync, and unless
+        // someone asked for it, there's no point syncing a location that just synced.
+        SyncRequestCoalescer coalescer = new SyncRequestCoalescer(context);
+        if (!coalescer.shouldRequestSync(Utility.getPreferredLocation(context),
+                System.currentTimeMillis(), checkFreshness)) {
+            // No sync will publish for this request, but a watch face that just started still
+            // needs something to show.
+            WatchForecastSender.sendStoredForecast(context);
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -707,6 +1021,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Points the sync adapter at another forecast server.
+     * @param baseUrl the URL to append the query parameters to, ending in '?', or null to go
+     *                back to the one from the build config
+     */
+    static void setForecastBaseUrl(String baseUrl) {
+        sForecastBaseUrl = baseUrl != null ? baseUrl : BuildConfig.FORECAST_BASE_URL;
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -763,7 +1086,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
+        if (getSyncAccount(context) != null) {
+            // Moves an existing account over to the current periodic sync.
+            configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        }
     }
 
     /**
@@ -777,6 +1103,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        // The listener would only hear about it later, on the main thread.
+        SettingsSnapshot.publish(c);
+    }
+
+    /**
+     * Sets the status of one particular location.  If that location is the preferred one, the
+     * global location status the UI watches is updated as well.  This function should not be
+     * called from the UI thread because it uses commit to write to the shared preferences.
+     * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status belongs to
+     * @param locationStatus The IntDef value to set
+     */
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
+        if (locationSetting.equals(Utility.getPreferredLocation(c))) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        }
+        spe.commit();
+        SettingsSnapshot.publish(c);
     }
 
 }
\ No newline at end of file
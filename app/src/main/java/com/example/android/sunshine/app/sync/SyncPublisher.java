@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last stage of a sync: hands today's forecast to every consumer that shows it (widgets,
+ * Muzei, the notification, the watch) and runs them concurrently, off the sync thread.  A slow
+ * consumer, like pushing a bitmap to the Wear data layer, no longer holds up the sync adapter.
+ *
+ * The latency of each consumer's last run is kept for diagnostics.
+ */
+public class SyncPublisher {
+    private static final String LOG_TAG = SyncPublisher.class.getSimpleName();
+
+    // Enough for every consumer we have to run at once.
+    private static final int MAX_CONCURRENT_CONSUMERS = 4;
+
+    private static final ThreadPoolExecutor sPublishExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_CONSUMERS, MAX_CONCURRENT_CONSUMERS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        // Don't keep idle threads around between syncs.
+        sPublishExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // consumer name -> latency of its last run, in milliseconds
+    private static final Map<String, Long> sLastLatencies = new HashMap<String, Long>();
+
+    /**
+     * Something that shows the weather and has to hear about a sync.
+     */
+    public interface Consumer {
+        /**
+         * Called on a worker thread.
+         * @param today today's forecast for the preferred location, or null if there is none
+         */
+        void publish(TodayForecast today);
+    }
+
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<Consumer> mConsumers = new ArrayList<Consumer>();
+
+    public SyncPublisher addConsumer(String name, Consumer consumer) {
+        mNames.add(name);
+        mConsumers.add(consumer);
+        return this;
+    }
+
+    /**
+     * Starts every consumer and returns right away.
+     */
+    public void publish(TodayForecast today) {
+        publish(today, null);
+    }
+
+    /**
+     * Starts every consumer and returns right away.
+     * @param timings if not null, gets a publish:[name] stage for every consumer once it is done
+     */
+    public void publish(final TodayForecast today, final SyncTimings timings) {
+        for (int i = 0; i < mConsumers.size(); i++) {
+            final String name = mNames.get(i);
+            final Consumer consumer = mConsumers.get(i);
+            sPublishExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startTime = SystemClock.elapsedRealtime();
+                    long startNanos = SyncTimings.start();
+                    try {
+                        consumer.publish(today);
+                    } catch (RuntimeException e) {
+                        // One broken consumer shouldn't keep the others from their update.
+                        Log.e(LOG_TAG, "Error publishing to " + name, e);
+                    } finally {
+                        long latency = SystemClock.elapsedRealtime() - startTime;
+                        synchronized (sLastLatencies) {
+                            sLastLatencies.put(name, latency);
+                        }
+                        if (timings != null) {
+                            timings.stop(SyncTimings.STAGE_PUBLISH_PREFIX + name, startNanos);
+                        }
+                        Log.d(LOG_TAG, "Published to " + name + " in " + latency + " ms");
+                    }
+                }
+            });
+        }
+    }
+
+    /** @return the latency of each consumer's last run, in milliseconds */
+    public static Map<String, Long> getLastLatencies() {
+        synchronized (sLastLatencies) {
+            return Collections.unmodifiableMap(new HashMap<String, Long>(sLastLatencies));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Decides whether an immediate sync request is worth sending.  A watch reconnecting can fire
+ * onPeerConnected, onConnectedNodes and a "/path/update" message within a second or two, and
+ * each of them used to request its own expedited sync.
+ *
+ * A request is dropped when
+ * <ul>
+ *     <li>a request for the same location already went out within the coalescing window, or</li>
+ *     <li>the last successful sync of that location is younger than the freshness threshold,
+ *     unless the caller skips that check.</li>
+ * </ul>
+ * Requests the user or the watch made skip the freshness check: they want a sync now, and only
+ * a burst of them collapses.
+ *
+ * The last sync times and the counters live in their own preferences file; the window is
+ * per-process.
+ */
+public class SyncRequestCoalescer {
+    private static final String LOG_TAG = SyncRequestCoalescer.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_requests";
+
+    private static final String KEY_LAST_SYNC_PREFIX = "last_sync:";
+    private static final String KEY_REQUESTED_COUNT = "requested_count";
+    private static final String KEY_COLLAPSED_COUNT = "collapsed_count";
+    private static final String KEY_FRESH_COUNT = "fresh_count";
+
+    // 30 seconds covers a watch reconnect burst.
+    public static final long DEFAULT_WINDOW_MILLIS = 30 * 1000;
+    // OWM updates its daily forecast a few times a day; 15 minutes old is still fresh.
+    public static final long DEFAULT_FRESHNESS_MILLIS = 15 * 60 * 1000;
+
+    private static final Object sLock = new Object();
+    private static long sWindowMillis = DEFAULT_WINDOW_MILLIS;
+    private static long sFreshnessMillis = DEFAULT_FRESHNESS_MILLIS;
+    private static String sLastRequestedLocation;
+    private static long sLastRequestTime;
+
+    private final SharedPreferences mPrefs;
+
+    public SyncRequestCoalescer(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Sets how close together two requests for the same location have to be to collapse.
+     */
+    public static void setWindowMillis(long windowMillis) {
+        synchronized (sLock) {
+            sWindowMillis = windowMillis;
+        }
+    }
+
+    /**
+     * Sets how recently a location must have synced for a request to be dropped.  Zero turns
+     * the freshness check off.
+     */
+    public static void setFreshnessMillis(long freshnessMillis) {
+        synchronized (sLock) {
+            sFreshnessMillis = freshnessMillis;
+        }
+    }
+
+    /**
+     * Counts the request and decides whether to send it.
+     * @param now the current time, in milliseconds since the epoch
+     * @return true if a sync should be requested
+     */
+    public boolean shouldRequestSync(String locationSetting, long now) {
+        return shouldRequestSync(locationSetting, now, true);
+    }
+
+    /**
+     * Counts the request and decides whether to send it.
+     * @param now the current time, in milliseconds since the epoch
+     * @param checkFreshness false to only collapse bursts, and sync even if the location just
+     *                       synced
+     * @return true if a sync should be requested
+     */
+    public boolean shouldRequestSync(String locationSetting, long now, boolean checkFreshness) {
+        synchronized (sLock) {
+            String countKey;
+            boolean request = false;
+            if (locationSetting.equals(sLastRequestedLocation)
+                    && now >= sLastRequestTime && now - sLastRequestTime < sWindowMillis) {
+                countKey = KEY_COLLAPSED_COUNT;
+            } else if (checkFreshness && isFresh(locationSetting, now)) {
+                countKey = KEY_FRESH_COUNT;
+            } else {
+                countKey = KEY_REQUESTED_COUNT;
+                request = true;
+                sLastRequestedLocation = locationSetting;
+                sLastRequestTime = now;
+            }
+            mPrefs.edit().putInt(countKey, mPrefs.getInt(countKey, 0) + 1).apply();
+            if (!request) {
+                Log.d(LOG_TAG, "Sync request for " + locationSetting + " dropped ("
+                        + getCollapsedCount() + " collapsed, " + getFreshCount() + " fresh, "
+                        + getRequestedCount() + " sent)");
+            }
+            return request;
+        }
+    }
+
+    private boolean isFresh(String locationSetting, long now) {
+        long lastSync = mPrefs.getLong(KEY_LAST_SYNC_PREFIX + locationSetting, 0);
+        return lastSync > 0 && now >= lastSync && now - lastSync < sFreshnessMillis;
+    }
+
+    /**
+     * Records that the stored forecast of a location is now up to date with the server.
+     */
+    public void recordSync(String locationSetting, long now) {
+        mPrefs.edit().putLong(KEY_LAST_SYNC_PREFIX + locationSetting, now).apply();
+    }
+
+    /** @return the number of requests that were passed on to the sync framework */
+    public int getRequestedCount() {
+        return mPrefs.getInt(KEY_REQUESTED_COUNT, 0);
+    }
+
+    /** @return the number of requests merged into an earlier one within the window */
+    public int getCollapsedCount() {
+        return mPrefs.getInt(KEY_COLLAPSED_COUNT, 0);
+    }
+
+    /** @return the number of requests dropped because the data was fresh enough */
+    public int getFreshCount() {
+        return mPrefs.getInt(KEY_FRESH_COUNT, 0);
+    }
+
+    /**
+     * Forgets the window, the last sync times and the counters.
+     */
+    void reset() {
+        synchronized (sLock) {
+            sLastRequestedLocation = null;
+            sLastRequestTime = 0;
+            sWindowMillis = DEFAULT_WINDOW_MILLIS;
+            sFreshnessMillis = DEFAULT_FRESHNESS_MILLIS;
+            mPrefs.edit().clear().commit();
+        }
+    }
+}
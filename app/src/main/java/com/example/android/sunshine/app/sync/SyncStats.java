@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The timings of the most recent syncs, kept in memory in a fixed-size ring buffer, with
+ * percentile summaries per stage.  Exposed through the sync_stats URIs of the provider, so slow
+ * syncs can be looked into on a real device without attaching a profiler.
+ */
+public class SyncStats {
+    public static final int CAPACITY = 64;
+
+    private static final SyncTimings[] sRing = new SyncTimings[CAPACITY];
+    // index of the next slot to write, and the number of slots in use
+    private static int sNext;
+    private static int sSize;
+
+    /**
+     * Adds the timings of a sync, replacing the oldest ones when the buffer is full.  The
+     * instance can still be written to afterwards; late stages like the publisher show up.
+     */
+    public static synchronized void record(SyncTimings timings) {
+        sRing[sNext] = timings;
+        sNext = (sNext + 1) % CAPACITY;
+        if (sSize < CAPACITY) {
+            sSize++;
+        }
+    }
+
+    /** @return the buffered syncs, newest first */
+    public static synchronized List<SyncTimings> getRecent() {
+        List<SyncTimings> recent = new ArrayList<SyncTimings>(sSize);
+        for (int i = 1; i <= sSize; i++) {
+            recent.add(sRing[(sNext - i + CAPACITY) % CAPACITY]);
+        }
+        return recent;
+    }
+
+    /** @return every stage name seen in the buffered syncs */
+    public static Set<String> getStageNames() {
+        Set<String> stages = new LinkedHashSet<String>();
+        for (SyncTimings timings : getRecent()) {
+            stages.addAll(timings.getStages().keySet());
+        }
+        return stages;
+    }
+
+    /** @return the sorted times of a stage over the buffered syncs that reached it */
+    public static long[] getSortedMillis(String stage) {
+        List<SyncTimings> recent = getRecent();
+        long[] values = new long[recent.size()];
+        int count = 0;
+        for (SyncTimings timings : recent) {
+            long millis = timings.getMillis(stage);
+            if (millis >= 0) {
+                values[count++] = millis;
+            }
+        }
+        values = Arrays.copyOf(values, count);
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     * @param percentile between 0 and 100
+     * @return the percentile, or -1 if there are no values
+     */
+    public static long percentile(long[] sortedValues, double percentile) {
+        if (sortedValues.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(0, Math.min(sortedValues.length, rank) - 1)];
+    }
+
+    static synchronized void clear() {
+        Arrays.fill(sRing, null);
+        sNext = 0;
+        sSize = 0;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.data.SyncStatsSource;
+
+import java.util.Map;
+
+/**
+ * The sync adapter's side of the provider's sync_stats URIs: what {@link SyncStats} has buffered
+ * and the state of the {@link FetchCircuitBreaker}.
+ */
+public class SyncStatsRows implements SyncStatsSource {
+    private final Context mContext;
+
+    public SyncStatsRows(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public void addSummaryRows(MatrixCursor cursor) {
+        for (String stage : SyncStats.getStageNames()) {
+            long[] millis = SyncStats.getSortedMillis(stage);
+            cursor.addRow(new Object[]{
+                    stage,
+                    millis.length,
+                    SyncStats.percentile(millis, 50),
+                    SyncStats.percentile(millis, 90),
+                    SyncStats.percentile(millis, 99),
+                    SyncStats.percentile(millis, 100)});
+        }
+    }
+
+    @Override
+    public void addRecentRows(MatrixCursor cursor) {
+        for (SyncTimings timings : SyncStats.getRecent()) {
+            for (Map.Entry<String, Long> stage : timings.getStages().entrySet()) {
+                cursor.addRow(new Object[]{timings.getStartTime(), stage.getKey(), stage.getValue()});
+            }
+        }
+    }
+
+    @Override
+    public void addBreakerRow(MatrixCursor cursor) {
+        FetchCircuitBreaker breaker = new FetchCircuitBreaker(mContext);
+        cursor.addRow(new Object[]{
+                breaker.getState(System.currentTimeMillis()),
+                breaker.getConsecutiveFailures(),
+                breaker.getOpenUntil(),
+                breaker.getTripCount(),
+                breaker.getSuppressedCount()});
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of one sync went, stage by stage.  Stages are measured with System.nanoTime(),
+ * which is monotonic, and kept in milliseconds.  A stage measured more than once in a sync (say
+ * the downloads of an all-locations sync) adds up.
+ *
+ * Fetches and publisher consumers run on other threads and report into the same instance, so
+ * every method is synchronized.
+ */
+public class SyncTimings {
+    // DNS lookup and TCP connect
+    public static final String STAGE_CONNECT = "connect";
+    // sending the request until the status line and headers are in
+    public static final String STAGE_TTFB = "ttfb";
+    // time spent waiting on the socket for the body
+    public static final String STAGE_DOWNLOAD = "download";
+    // time spent parsing the body, not counting the waits on the socket
+    public static final String STAGE_PARSE = "parse";
+    // the one transaction that stores the locations, the days and the prune of old days
+    public static final String STAGE_INSERT = "insert";
+    // the whole of onPerformSync, not counting the publisher
+    public static final String STAGE_TOTAL = "total";
+    // prefix of the stage of each publisher consumer, e.g. "publish:wear"
+    public static final String STAGE_PUBLISH_PREFIX = "publish:";
+
+    private final long mStartTime;
+    private final Map<String, Long> mStageMillis = new LinkedHashMap<String, Long>();
+
+    public SyncTimings() {
+        mStartTime = System.currentTimeMillis();
+    }
+
+    /** @return a System.nanoTime() reading to pass to {@link #stop} */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since startNanos to a stage.
+     */
+    public void stop(String stage, long startNanos) {
+        addNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public synchronized void addNanos(String stage, long nanos) {
+        Long millis = mStageMillis.get(stage);
+        long added = TimeUnit.NANOSECONDS.toMillis(nanos);
+        mStageMillis.put(stage, millis == null ? added : millis + added);
+    }
+
+    /** @return when the sync started, in milliseconds since the epoch */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /** @return the time of a stage in milliseconds, or -1 if the sync never reached it */
+    public synchronized long getMillis(String stage) {
+        Long millis = mStageMillis.get(stage);
+        return millis == null ? -1 : millis;
+    }
+
+    /** @return a copy of every stage measured so far, in the order they were first measured */
+    public synchronized Map<String, Long> getStages() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(mStageMillis));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return mStageMillis.toString();
+    }
+}
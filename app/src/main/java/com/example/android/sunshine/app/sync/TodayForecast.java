@@ -0,0 +1,72 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * An immutable copy of today's forecast for one location, read once after a sync and handed to
+ * everything that publishes it (the notification, the watch, ...).
+ */
+public final class TodayForecast {
+    private static final String[] TODAY_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_SHORT_DESC = 4;
+
+    public final String locationSetting;
+    public final long date;
+    public final int weatherId;
+    public final double high;
+    public final double low;
+    public final String description;
+
+    public TodayForecast(String locationSetting, long date, int weatherId, double high, double low,
+                         String description) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.high = high;
+        this.low = low;
+        this.description = description;
+    }
+
+    /**
+     * @return today's forecast for the location, or null if the database doesn't have it
+     */
+    public static TodayForecast query(Context context, String locationSetting) {
+        Uri currentUri = WeatherContract.CurrentEntry.buildCurrentLocation(locationSetting);
+        Cursor cursor = context.getContentResolver().query(currentUri, TODAY_PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            // The current conditions can be a later day when today is missing.
+            if (!cursor.moveToFirst() || cursor.getLong(INDEX_DATE)
+                    != WeatherContract.normalizeDate(System.currentTimeMillis())) {
+                return null;
+            }
+            return new TodayForecast(locationSetting,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP),
+                    cursor.getString(INDEX_SHORT_DESC));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's forecast to the watch face as a data item.
+ *
+ * Every send connects a Google API client of its own and disconnects it when it's done.  Sends
+ * run on publisher threads, several can be in flight at once, and a shared client disconnected
+ * by one of them would fail the others.
+ *
+ * When a sync request is dropped, the stored forecast is sent instead, so a watch face that asked
+ * for the weather doesn't wait for a sync that isn't coming.
+ *
+ * Credit to: https://developer.android.com/ for data layer code
+ */
+public final class WatchForecastSender {
+    private static final String LOG_TAG = WatchForecastSender.class.getSimpleName();
+
+    // How long a send waits for the Google API client before giving up on the watch.
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    // Sends of the stored forecast, requested from the main thread, run here one at a time.
+    private static final ThreadPoolExecutor sStoredForecastExecutor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        // Don't keep an idle thread around between sends.
+        sStoredForecastExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private WatchForecastSender() {
+    }
+
+    /**
+     * Sends the forecast and waits for the data layer to take it.  Don't call this on the main
+     * thread.
+     * @param today today's forecast, or null to send nothing
+     */
+    public static void send(Context context, TodayForecast today) {
+        Log.d(LOG_TAG, "called send");
+        if (today == null)
+            return;
+
+        int weatherId = today.weatherId;
+        String high = Utility.formatTemperature(context, today.high);
+        String low = Utility.formatTemperature(context, today.low);
+
+//      makeWeatherUnique is added to the weather data in order to get unique values each time it is called.
+//      This value is subtracted in the myWatchFace class
+        Random random = new Random();
+        int  makeWeatherUnique = random.nextInt(1000) + 1;
+
+
+        Bitmap iconBitmap = BitmapFactory.decodeResource(context.getResources(), Utility.getArtResourceForWeatherCondition(weatherId));
+        String highTemperature = high + makeWeatherUnique;
+        String lowTemperature = low + makeWeatherUnique;
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create("/watchface-temp-update");
+        putDataMapRequest.getDataMap().putInt("makeWeatherUnique", makeWeatherUnique);
+        putDataMapRequest.getDataMap().putString("high-temp", highTemperature);
+        putDataMapRequest.getDataMap().putString("low-temp", lowTemperature);
+        putDataMapRequest.getDataMap().putAsset("icon", createAssetFromBitmap(iconBitmap));
+        putDataMapRequest.getDataMap().putLong("time", System.currentTimeMillis());
+        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+        request.setUrgent();
+
+        Log.d(LOG_TAG, "Attempt to send request with high = " + highTemperature + " and low = " + lowTemperature + " makeWeatherUnique = " + makeWeatherUnique );
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        try {
+            ConnectionResult connectionResult =
+                    googleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.d(LOG_TAG, "DataItem not sent, no connection to Google API client ("
+                        + connectionResult.getErrorCode() + ")");
+                return;
+            }
+            DataApi.DataItemResult result =
+                    Wearable.DataApi.putDataItem(googleApiClient, request).await();
+            if (result.getStatus().isSuccess()) {
+                Log.d(LOG_TAG, "DataItem sent successfully");
+            } else {
+                Log.d(LOG_TAG, "DataItem Failed to send");
+            }
+        } finally {
+            googleApiClient.disconnect();
+        }
+    }
+
+    /**
+     * Sends the stored forecast of the preferred location, if there is one for today, without
+     * waiting for a sync.  Returns right away; the database read and the send run on a worker
+     * thread.
+     */
+    public static void sendStoredForecast(Context context) {
+        final Context appContext = context.getApplicationContext();
+        sStoredForecastExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                send(appContext, TodayForecast.query(appContext,
+                        Utility.getPreferredLocation(appContext)));
+            }
+        });
+    }
+
+    private static Asset createAssetFromBitmap(Bitmap bitmap) {
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        return Asset.createFromBytes(byteStream.toByteArray());
+    }
+}